@@ -2,13 +2,23 @@ package com.saq.chatMemory;
 
 import com.saq.chatMemory.advisor.CompactingChatMemoryAdvisor;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 
+/**
+ * Every endpoint is scoped to one conversation, selected with the {@value #CONVERSATION_ID_HEADER}
+ * header. Requests without the header share the {@value ChatMemory#DEFAULT_CONVERSATION_ID} conversation.
+ */
 @RestController
 public class CompactingChatMemoryController {
 
+    public static final String CONVERSATION_ID_HEADER = "X-Conversation-Id";
+
     private final ChatClient chatClient;
     private final CompactingChatMemoryAdvisor compactingAdvisor;
 
@@ -23,15 +33,36 @@ public class CompactingChatMemoryController {
      * When the conversation reaches the configured threshold (compact-threshold),
      * the oldest messages (messages-to-compact) will be automatically summarized
      * into a single message, preserving context while reducing memory usage.
+     * With {@code pin=true} the message is pinned: compaction never summarizes it, which suits
+     * specifications the rest of the conversation has to follow to the letter.
      */
     @GetMapping("/memory")
-    public String chat(@RequestParam String message) {
+    public String chat(@RequestParam String message,
+                       @RequestParam(defaultValue = "false") boolean pin,
+                       @RequestHeader(name = CONVERSATION_ID_HEADER, defaultValue = ChatMemory.DEFAULT_CONVERSATION_ID) String conversationId) {
         return chatClient.prompt()
-                .user(message)
+                .user(user -> user.text(message).metadata(CompactingChatMemoryAdvisor.PINNED_METADATA_KEY, pin))
+                .advisors(advisor -> advisor.param(ChatMemory.CONVERSATION_ID, conversationId))
                 .call()
                 .content();
     }
 
+    /**
+     * Streaming variant of {@link #chat(String, boolean, String)}, sent as server-sent events.
+     * Tokens are forwarded as they arrive; the full reply is written to memory once the stream
+     * completes, and any compaction it triggers runs after that, off the stream.
+     */
+    @GetMapping(value = "/memory/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> chatStream(@RequestParam String message,
+                                   @RequestParam(defaultValue = "false") boolean pin,
+                                   @RequestHeader(name = CONVERSATION_ID_HEADER, defaultValue = ChatMemory.DEFAULT_CONVERSATION_ID) String conversationId) {
+        return chatClient.prompt()
+                .user(user -> user.text(message).metadata(CompactingChatMemoryAdvisor.PINNED_METADATA_KEY, pin))
+                .advisors(advisor -> advisor.param(ChatMemory.CONVERSATION_ID, conversationId))
+                .stream()
+                .content();
+    }
+
     /**
      * Manually trigger compaction of the conversation history.
      * This allows you to compact the conversation at any time, even before
@@ -40,8 +71,8 @@ public class CompactingChatMemoryController {
      * @return Information about what was compacted (message counts, token savings)
      */
     @GetMapping("/trigger")
-    public String triggerCompact() {
-        return compactingAdvisor.compact();
+    public String triggerCompact(@RequestHeader(name = CONVERSATION_ID_HEADER, defaultValue = ChatMemory.DEFAULT_CONVERSATION_ID) String conversationId) {
+        return compactingAdvisor.compact(conversationId);
     }
 
     /**
@@ -50,7 +81,7 @@ public class CompactingChatMemoryController {
      * @return Confirmation message
      */
     @GetMapping("/clear")
-    public String clearMemory() {
-        return compactingAdvisor.clear();
+    public String clearMemory(@RequestHeader(name = CONVERSATION_ID_HEADER, defaultValue = ChatMemory.DEFAULT_CONVERSATION_ID) String conversationId) {
+        return compactingAdvisor.clear(conversationId);
     }
 }
@@ -0,0 +1,116 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.content.MediaContent;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link TokenCountEstimator} decorator that remembers the token count of every text it has seen.
+ *
+ * <p>Chat memory hands back the same message texts on every request, so without a cache the
+ * whole history is re-tokenized each time it is inspected. Entries are keyed by the text itself
+ * and kept in a bounded LRU, so a message is tokenized once for as long as it stays in use.
+ *
+ * <p>The LRU is split into segments selected by text hash, each with its own lock and an equal
+ * share of the capacity, so concurrent requests only contend when their texts land in the same
+ * segment. Eviction is least recently used within a segment, which approximates a global LRU.
+ */
+public class CachingTokenCountEstimator implements TokenCountEstimator {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final TokenCountEstimator delegate;
+    private final Segment[] segments;
+    private final int mask;
+
+    public CachingTokenCountEstimator(TokenCountEstimator delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries Most texts kept across all segments
+     */
+    public CachingTokenCountEstimator(TokenCountEstimator delegate, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.delegate = delegate;
+        // A power of two no larger than maxEntries, so every segment holds at least one entry
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxEntries));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxEntries / count);
+        }
+        this.mask = count - 1;
+    }
+
+    @Override
+    public int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Segment segment = segmentFor(text);
+        synchronized (segment) {
+            Integer cached = segment.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Tokenize outside the lock; a concurrent miss on the same text just computes it twice
+        int tokens = delegate.estimate(text);
+        synchronized (segment) {
+            segment.put(text, tokens);
+        }
+        return tokens;
+    }
+
+    @Override
+    public int estimate(MediaContent content) {
+        return delegate.estimate(content);
+    }
+
+    @Override
+    public int estimate(Iterable<MediaContent> messages) {
+        return delegate.estimate(messages);
+    }
+
+    /**
+     * @return Number of texts currently cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String text) {
+        int h = text.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * Access-ordered LRU holding one segment's share of the entries. Guarded by its own monitor.
+     */
+    private static final class Segment extends LinkedHashMap<String, Integer> {
+
+        private final int maxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.saq.chatMemory.advisor;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import com.saq.chatMemory.memory.CompactableChatMemory;
+import com.saq.chatMemory.memory.MessageSizes;
+import com.saq.chatMemory.memory.StripedLocks;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.*;
@@ -11,13 +17,24 @@ import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -41,11 +58,76 @@ import java.util.stream.Collectors;
  *   <li><b>maxMessages</b>: Maximum messages to retain (e.g., 100)</li>
  *   <li><b>compactThreshold</b>: When to trigger compaction (e.g., 80)</li>
  *   <li><b>messagesToCompact</b>: How many old messages to summarize (e.g., 40)</li>
+ *   <li><b>maxTokens</b>: Hard token cap for the retained history, 0 to disable (e.g., 32000)</li>
+ *   <li><b>compactThresholdTokens</b>: Token count that also triggers compaction, 0 to disable (e.g., 24000)</li>
+ *   <li><b>tokenCountCacheSize</b>: Message texts whose token counts are cached (e.g., 10000)</li>
  * </ul>
  *
+ * <p>Compaction fires on whichever threshold, messages or tokens, is reached first.
+ *
+ * <p>With <b>compactionTargetTokens</b>, a compaction no longer takes a fixed messagesToCompact:
+ * a {@link CompactionPlanner} moves the boundary, on turn boundaries only, until the kept messages
+ * plus the summary fit that many tokens, while always keeping at least <b>recentTailTokens</b> of
+ * the latest messages verbatim. The summary is budgeted at extractiveTokenBudget tokens.
+ *
+ * <p>Pinned messages are never summarized: a compaction keeps them verbatim, in order, around the
+ * summary that replaces the rest of its range. System messages other than summaries are always
+ * pinned, as is any message whose {@value #PINNED_METADATA_KEY} metadata is {@code true}, and
+ * <b>pinnedMessages</b> can pin more by predicate (key tool outputs, specifications). Pinned tokens
+ * stay in the history, so the planner counts them as kept.
+ *
+ * <p>Streaming calls are supported too: the streamed response is aggregated into the assistant message
+ * written to memory, and any compaction it triggers runs after the stream has completed.
+ *
+ * <p>With <b>incrementalSummary</b> enabled, the summary from the previous compaction is folded into the
+ * next one: the summarizer receives that summary plus the newly evicted messages, so its input stays
+ * bounded while early context survives any number of compactions.
+ *
+ * <p>With <b>asyncCompaction</b> enabled, a triggered compaction runs on a bounded background
+ * executor while the current request proceeds with the uncompacted history. The summary is swapped
+ * in once ready, keeping any messages appended in the meantime. If the next turn would push the
+ * history past maxMessages or maxTokens, compaction runs synchronously instead.
+ *
+ * <p>With the <b>EXTRACTIVE</b> <b>compactionStrategy</b>, no summarizer is called at all: the most
+ * informative sentences of the compacted range are kept verbatim, up to <b>extractiveTokenBudget</b>
+ * tokens (see {@link ExtractiveSummarizer}). Compaction then takes milliseconds and keeps working
+ * when the model is unavailable, at the cost of a less fluent summary.
+ *
+ * <p>Summarizer calls are guarded by an optional <b>summarizerTimeout</b> and a circuit breaker that
+ * opens after <b>breakerFailureThreshold</b> consecutive failures and refuses calls for
+ * <b>breakerOpenDuration</b>. When a call fails, times out or is refused, <b>summarizerFallback</b>
+ * decides what happens: <b>EXTRACTIVE</b> compacts in-process instead, <b>TRUNCATE</b> drops the
+ * range keeping only the previous summary, and <b>NONE</b> fails the compaction as before.
+ *
+ * <p>With <b>mapReduceChunkTokens</b>, a compaction range whose transcript exceeds that many tokens is
+ * split into chunks of at most that size, which are summarized concurrently (at most
+ * <b>mapReduceConcurrency</b> chunks of one compaction at once) and then merged in a final reduce
+ * call, so large ranges never have to fit the summarizer's context window in one prompt.
+ *
+ * <p>With a <b>summaryCache</b>, every summarizer prompt is first looked up by a hash of its content
+ * and the summarizer model (see {@link SummaryCache}), and a hit skips the model call entirely.
+ *
+ * <p>With a <b>summarizerScheduler</b>, every summarizer call first waits for admission by that
+ * {@link SummarizerScheduler}, which bounds the calls in flight and their rate across all the
+ * advisors sharing it. Compactions a request is blocked on are admitted before background ones.
+ *
+ * <p>With an <b>idleTtl</b>, a background sweeper evicts conversations that have not been used for
+ * that long, either dropping them outright or first compacting the whole history into a single summary
+ * (<b>idleEviction</b>). Each sweep inspects at most <b>sweepBatchSize</b> conversations, continuing
+ * where the previous one stopped, so the cost of a sweep doesn't grow with the number of conversations.
+ *
+ * <p>With <b>maxHeapBytes</b>, the approximate bytes retained by each conversation (text plus metadata,
+ * see {@link MessageSizes}) are tracked, and once the total exceeds the budget the largest or coldest
+ * conversations (<b>heapEvictionOrder</b>) are summarized or dropped (<b>heapEviction</b>) in the
+ * background until usage is back under 90% of it.
+ *
+ * <p>Both only know conversations this advisor has handled since it started. A conversation
+ * recovered from a persistent repository is neither swept nor counted toward the heap budget until
+ * it is used again.
+ *
  * @see org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor
  */
-public class CompactingChatMemoryAdvisor implements CallAdvisor {
+public class CompactingChatMemoryAdvisor implements CallAdvisor, StreamAdvisor, AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(CompactingChatMemoryAdvisor.class);
 
@@ -54,11 +136,71 @@ public class CompactingChatMemoryAdvisor implements CallAdvisor {
     private final int maxMessages;
     private final int compactThreshold;
     private final int messagesToCompact;
+    private final int maxTokens;
+    private final int compactThresholdTokens;
+    private final boolean incrementalSummary;
+    private final MapReduceSummarizer mapReduceSummarizer;
+    private final CompactionPlanner compactionPlanner;
+    private final Predicate<Message> pinnedMessages;
+    private final CompactionStrategy compactionStrategy;
+    private final ExtractiveSummarizer extractiveSummarizer;
+    private final long summarizerTimeoutNanos;
+    private final SummarizerCircuitBreaker circuitBreaker;
+    private final SummarizerFallback summarizerFallback;
+    private final ExecutorService summarizerExecutor;
+    private final SummaryCache summaryCache;
+    private final SummarizerScheduler summarizerScheduler;
+    private final String summarizerModel;
     private final TokenCountEstimator tokenCountEstimator;
+    private final ConversationStatsTracker statsTracker;
+    private final StripedLocks conversationLocks = new StripedLocks();
+    private final CompactionMetrics metrics;
+    private final ThreadPoolExecutor compactionExecutor;
+    private final Set<String> pendingCompactions = ConcurrentHashMap.newKeySet();
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ConversationActivity activity;
+    private final long idleTtlNanos;
+    private final EvictionAction idleEviction;
+    private final int sweepBatchSize;
+    private final HeapUsageTracker heapUsage = new HeapUsageTracker();
+    private final long maxHeapBytes;
+    private final EvictionAction heapEviction;
+    private final HeapEvictionOrder heapEvictionOrder;
+    private final AtomicBoolean heapBudgetEnforcementPending = new AtomicBoolean();
+    private final ScheduledExecutorService maintenanceExecutor;
     private static final String DEFAULT_CONVERSATION_ID = "default";
+    private static final String SUMMARY_PREFIX = "Summary of previous conversation: ";
+    /**
+     * Part of every summary cache key; bump it when the summarizer prompts change meaning.
+     */
+    private static final String SUMMARY_PROMPT_VERSION = "1";
+
+    /**
+     * Metadata flag set on the system messages this advisor writes as compaction summaries.
+     */
+    public static final String SUMMARY_METADATA_KEY = "compaction_summary";
+
+    /**
+     * Metadata flag that pins a message: compaction keeps it verbatim instead of summarizing it.
+     * Also honored on the user message of a request, which is stored pinned.
+     */
+    public static final String PINNED_METADATA_KEY = "pinned";
 
     public CompactingChatMemoryAdvisor(ChatMemory chatMemory, ChatModel chatModel,
                                        int maxMessages, int compactThreshold, int messagesToCompact) {
+        this(builder(chatMemory, chatModel)
+                .maxMessages(maxMessages)
+                .compactThreshold(compactThreshold)
+                .messagesToCompact(messagesToCompact));
+    }
+
+    private CompactingChatMemoryAdvisor(Builder builder) {
+        int maxMessages = builder.maxMessages;
+        int compactThreshold = builder.compactThreshold;
+        int messagesToCompact = builder.messagesToCompact;
+        int maxTokens = builder.maxTokens;
+        int compactThresholdTokens = builder.compactThresholdTokens;
+
         // Validate configuration
         if (compactThreshold >= maxMessages) {
             throw new IllegalArgumentException(
@@ -77,55 +219,205 @@ public class CompactingChatMemoryAdvisor implements CallAdvisor {
                     "messagesToCompact must be at least 2"
             );
         }
+        if (maxTokens < 0 || compactThresholdTokens < 0) {
+            throw new IllegalArgumentException(
+                    "maxTokens and compactThresholdTokens must not be negative"
+            );
+        }
+        if (maxTokens > 0 && compactThresholdTokens >= maxTokens) {
+            throw new IllegalArgumentException(
+                    String.format("compactThresholdTokens (%d) must be less than maxTokens (%d)",
+                            compactThresholdTokens, maxTokens)
+            );
+        }
 
-        this.chatMemory = chatMemory;
-        this.summaryClient = ChatClient.builder(chatModel).build();
+        this.chatMemory = builder.chatMemory;
+        this.summaryClient = ChatClient.builder(builder.chatModel).build();
         this.maxMessages = maxMessages;
         this.compactThreshold = compactThreshold;
         this.messagesToCompact = messagesToCompact;
-        this.tokenCountEstimator = new JTokkitTokenCountEstimator();
+        this.maxTokens = maxTokens;
+        // Without an explicit token threshold, compact once the hard cap itself is reached
+        this.compactThresholdTokens = compactThresholdTokens > 0 ? compactThresholdTokens : maxTokens;
+        // Cache per-message counts so the history isn't re-tokenized on every inspection; shared with the summarizers
+        this.tokenCountEstimator = new CachingTokenCountEstimator(new JTokkitTokenCountEstimator(), builder.tokenCountCacheSize);
+        this.statsTracker = new ConversationStatsTracker(maxMessages);
+        this.incrementalSummary = builder.incrementalSummary;
+        this.metrics = new CompactionMetrics(builder.meterRegistry, builder.name);
+        this.activity = new ConversationActivity(builder.nanoClock);
+        this.pinnedMessages = builder.pinnedMessages;
+
+        if (builder.compactionTargetTokens < 0) {
+            throw new IllegalArgumentException("compactionTargetTokens must not be negative");
+        }
+        this.compactionPlanner = builder.compactionTargetTokens > 0 ?
+                new CompactionPlanner(builder.compactionTargetTokens, builder.recentTailTokens,
+                        builder.extractiveTokenBudget, this::estimateTokenCount, this::isPinned) :
+                null;
+
+        this.compactionStrategy = builder.compactionStrategy;
+        this.summarizerFallback = builder.summarizerFallback;
+        this.extractiveSummarizer = compactionStrategy == CompactionStrategy.EXTRACTIVE
+                || summarizerFallback == SummarizerFallback.EXTRACTIVE ?
+                new ExtractiveSummarizer(builder.extractiveTokenBudget, tokenCountEstimator) :
+                null;
+
+        if (builder.summarizerTimeout.isNegative() || builder.breakerFailureThreshold < 0) {
+            throw new IllegalArgumentException("summarizerTimeout and breakerFailureThreshold must not be negative");
+        }
+        this.summarizerTimeoutNanos = builder.summarizerTimeout.toNanos();
+        // The calling thread waits at most the timeout; the call itself runs on a virtual thread that is interrupted on expiry
+        this.summarizerExecutor = summarizerTimeoutNanos > 0 ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.circuitBreaker = builder.breakerFailureThreshold > 0 ?
+                new SummarizerCircuitBreaker(builder.breakerFailureThreshold, builder.breakerOpenDuration.toNanos(), builder.nanoClock) :
+                null;
+        if (circuitBreaker != null) {
+            metrics.bindCircuitBreaker(circuitBreaker);
+        }
+        this.summaryCache = builder.summaryCache;
+        String model = builder.chatModel.getDefaultOptions() != null ? builder.chatModel.getDefaultOptions().getModel() : null;
+        this.summarizerModel = model != null ? model : builder.chatModel.getClass().getName();
+        if (summaryCache != null) {
+            metrics.bindSummaryCache(summaryCache);
+        }
+        this.summarizerScheduler = builder.summarizerScheduler;
+
+        if (builder.mapReduceChunkTokens < 0) {
+            throw new IllegalArgumentException("mapReduceChunkTokens must not be negative");
+        }
+        this.mapReduceSummarizer = builder.mapReduceChunkTokens > 0 ?
+                new MapReduceSummarizer(builder.mapReduceChunkTokens, builder.mapReduceConcurrency, tokenCountEstimator) :
+                null;
+
+        if (builder.asyncCompaction) {
+            if (builder.asyncConcurrency < 1 || builder.asyncQueueCapacity < 1) {
+                throw new IllegalArgumentException(
+                        "asyncConcurrency and asyncQueueCapacity must be at least 1"
+                );
+            }
+            // Summarizer calls are I/O bound, so virtual threads are enough; the queue bounds the backlog
+            this.compactionExecutor = new ThreadPoolExecutor(
+                    builder.asyncConcurrency, builder.asyncConcurrency, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(builder.asyncQueueCapacity),
+                    Thread.ofVirtual().name("compaction-", 0).factory());
+            metrics.bindAsyncExecutor(compactionExecutor);
+        } else {
+            this.compactionExecutor = null;
+        }
+
+        this.idleTtlNanos = builder.idleTtl.toNanos();
+        this.idleEviction = builder.idleEviction;
+        this.sweepBatchSize = builder.sweepBatchSize;
+        this.maxHeapBytes = builder.maxHeapBytes;
+        this.heapEviction = builder.heapEviction;
+        this.heapEvictionOrder = builder.heapEvictionOrder;
+        if (idleTtlNanos < 0 || maxHeapBytes < 0) {
+            throw new IllegalArgumentException("idleTtl and maxHeapBytes must not be negative");
+        }
+        if (idleTtlNanos > 0 && (builder.sweepInterval.isZero() || builder.sweepInterval.isNegative() || sweepBatchSize < 1)) {
+            throw new IllegalArgumentException(
+                    "sweepInterval must be positive and sweepBatchSize at least 1"
+            );
+        }
+        metrics.bindHeapUsage(heapUsage::totalBytes);
+
+        // Idle sweeps and heap budget enforcement share one background thread, off the request path
+        if (idleTtlNanos > 0 || maxHeapBytes > 0) {
+            this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("chat-memory-maintenance").daemon().factory());
+        } else {
+            this.maintenanceExecutor = null;
+        }
+        if (idleTtlNanos > 0) {
+            long interval = builder.sweepInterval.toNanos();
+            maintenanceExecutor.scheduleWithFixedDelay(this::sweepQuietly, interval, interval, TimeUnit.NANOSECONDS);
+        }
     }
 
     @Override
     public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
         String conversationId = getConversationId(request);
         logger.debug("Processing request for conversation: {}", conversationId);
+        long start = System.nanoTime();
 
         // Check if compaction is needed before processing
         checkAndCompact(conversationId);
 
+        ChatClientRequest augmentedRequest = augmentWithMemory(request, conversationId);
+        long downstreamStart = System.nanoTime();
+        ChatClientResponse response = chain.nextCall(augmentedRequest);
+        long downstreamNanos = System.nanoTime() - downstreamStart;
+
+        // Add assistant response to memory
+        addAssistantResponse(conversationId, response);
+
+        metrics.recordAdviseOverhead(System.nanoTime() - start - downstreamNanos);
+        return response;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        String conversationId = getConversationId(request);
+        logger.debug("Processing streaming request for conversation: {}", conversationId);
+
+        return Mono.fromCallable(() -> {
+                    // Only compact up front if this turn would overflow the history; otherwise
+                    // compaction waits until the response has finished streaming
+                    ConversationStats stats = getConversationStats(conversationId);
+                    if (exceedsHardCap(stats) && needsCompaction(conversationId, stats)) {
+                        compactIfStillNeeded(conversationId, SummarizerScheduler.Priority.INTERACTIVE);
+                    }
+                    return augmentWithMemory(request, conversationId);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(chain::nextStream)
+                .transform(flux -> new ChatClientMessageAggregator().aggregateChatClientResponse(flux, response -> {
+                    addAssistantResponse(conversationId, response);
+                    compactAfterStream(conversationId);
+                }));
+    }
+
+    /**
+     * Add the user message to memory and replace the prompt with the full conversation history.
+     */
+    private ChatClientRequest augmentWithMemory(ChatClientRequest request, String conversationId) {
         // Extract and add user message to memory
-        String userText = request.prompt().getInstructions().stream()
+        UserMessage userMessage = request.prompt().getInstructions().stream()
                 .filter(msg -> msg instanceof UserMessage)
-                .map(msg -> ((UserMessage) msg).getText())
+                .map(msg -> (UserMessage) msg)
                 .findFirst()
-                .orElse("");
+                .orElse(null);
+        String userText = userMessage != null && userMessage.getText() != null ? userMessage.getText() : "";
 
         if (!userText.isEmpty()) {
             logger.debug("Adding user message to memory for conversation {}: {}", conversationId, userText);
-            chatMemory.add(conversationId, new UserMessage(userText));
+            // Of the request metadata, only the pin is kept in memory
+            boolean pinned = Boolean.TRUE.equals(userMessage.getMetadata().get(PINNED_METADATA_KEY));
+            addToMemory(conversationId, pinned ?
+                    UserMessage.builder().text(userText).metadata(Map.of(PINNED_METADATA_KEY, true)).build() :
+                    new UserMessage(userText));
         }
 
         // Get conversation history and augment the prompt
         List<Message> memoryMessages = chatMemory.get(conversationId);
-        int tokenCount = estimateTokenCount(memoryMessages);
         logger.debug("Retrieved {} messages ({} tokens) from memory for conversation {}",
-                memoryMessages.size(), tokenCount, conversationId);
+                memoryMessages.size(), getConversationStats(conversationId).tokenCount(), conversationId);
 
         Prompt augmentedPrompt = new Prompt(memoryMessages);
-        ChatClientRequest modifiedRequest = ChatClientRequest.builder()
+        return ChatClientRequest.builder()
                 .prompt(augmentedPrompt)
                 .context(Map.copyOf(request.context()))
                 .build();
+    }
 
-        ChatClientResponse response = chain.nextCall(modifiedRequest);
-
-        // Add assistant response to memory
+    private void addAssistantResponse(String conversationId, ChatClientResponse response) {
+        if (response.chatResponse() == null || response.chatResponse().getResult() == null) {
+            logger.debug("No assistant response to add to memory for conversation {}", conversationId);
+            return;
+        }
         String assistantResponse = response.chatResponse().getResult().getOutput().getText();
         logger.debug("Adding assistant response to memory for conversation {}", conversationId);
-        chatMemory.add(conversationId, new AssistantMessage(assistantResponse));
-
-        return response;
+        addToMemory(conversationId, new AssistantMessage(assistantResponse));
     }
 
     /**
@@ -135,14 +427,16 @@ public class CompactingChatMemoryAdvisor implements CallAdvisor {
      */
     public String compact(String conversationId) {
         logger.debug("Manual compaction requested for conversation: {}", conversationId);
-        List<Message> messages = chatMemory.get(conversationId);
+        int messageCount = getConversationStats(conversationId).messageCount();
 
-        if (messages.size() < messagesToCompact) {
-            logger.debug("Not enough messages to compact. Current: {}, minimum: {}", messages.size(), messagesToCompact);
-            return "Not enough messages to compact. Current: " + messages.size() + ", minimum: " + messagesToCompact;
+        if (messageCount < messagesToCompact) {
+            logger.debug("Not enough messages to compact. Current: {}, minimum: {}", messageCount, messagesToCompact);
+            return "Not enough messages to compact. Current: " + messageCount + ", minimum: " + messagesToCompact;
         }
 
-        return performCompaction(conversationId, messages);
+        // Join a compaction that is already running rather than summarizing the same range twice
+        return singleFlight.execute(conversationId,
+                () -> performCompaction(conversationId, chatMemory.get(conversationId), SummarizerScheduler.Priority.INTERACTIVE));
     }
 
     /**
@@ -159,11 +453,20 @@ public class CompactingChatMemoryAdvisor implements CallAdvisor {
      */
     public String clear(String conversationId) {
         logger.debug("Clearing conversation history for: {}", conversationId);
-        List<Message> messages = chatMemory.get(conversationId);
-        int messageCount = messages.size();
-        int tokenCount = estimateTokenCount(messages);
+        ConversationStats stats = getConversationStats(conversationId);
+        int messageCount = stats.messageCount();
+        int tokenCount = stats.tokenCount();
 
-        chatMemory.clear(conversationId);
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            chatMemory.clear(conversationId);
+            statsTracker.remove(conversationId);
+            heapUsage.remove(conversationId);
+            activity.remove(conversationId);
+        } finally {
+            lock.unlock();
+        }
 
         logger.debug("Cleared {} messages ({} tokens) from conversation {}",
                 messageCount, tokenCount, conversationId);
@@ -180,79 +483,622 @@ public class CompactingChatMemoryAdvisor implements CallAdvisor {
         return clear(DEFAULT_CONVERSATION_ID);
     }
 
+    /**
+     * Running message and token totals for a conversation.
+     * @param conversationId The conversation ID to look up
+     * @return Current totals, seeded from chat memory on first access
+     */
+    public ConversationStats getConversationStats(String conversationId) {
+        return statsTracker.get(conversationId, () -> chatMemory.get(conversationId), this::estimateTokenCount);
+    }
+
+    /**
+     * Running totals for every conversation the advisor has seen since startup or last clear.
+     * @return Immutable snapshot keyed by conversation ID
+     */
+    public Map<String, ConversationStats> getConversationStats() {
+        return statsTracker.snapshot();
+    }
+
     private void checkAndCompact(String conversationId) {
-        List<Message> messages = chatMemory.get(conversationId);
-        int currentTokens = estimateTokenCount(messages);
-        logger.debug("Checking compaction threshold: messages={}/{}, tokens={}, conversationId={}",
-                messages.size(), compactThreshold, currentTokens, conversationId);
+        ConversationStats stats = getConversationStats(conversationId);
+        logger.debug("Checking compaction threshold: messages={}/{}, tokens={}/{}, conversationId={}",
+                stats.messageCount(), compactThreshold, stats.tokenCount(), compactThresholdTokens, conversationId);
+
+        if (needsCompaction(conversationId, stats)) {
+            triggerCompaction(conversationId, stats);
+        }
+    }
 
-        if (messages.size() >= compactThreshold) {
+    private boolean needsCompaction(String conversationId, ConversationStats stats) {
+        if (stats.messageCount() >= compactThreshold) {
             logger.debug("Compaction threshold reached ({}/{}). Triggering compaction for conversation {} ({} tokens)",
-                    messages.size(), compactThreshold, conversationId, currentTokens);
-            performCompaction(conversationId, messages);
+                    stats.messageCount(), compactThreshold, conversationId, stats.tokenCount());
+            return true;
+        }
+        if (compactThresholdTokens > 0 && stats.tokenCount() >= compactThresholdTokens) {
+            // A few huge messages can blow the token budget long before the message threshold
+            if (stats.messageCount() < messagesToCompact) {
+                logger.debug("Token threshold reached ({}/{}) but only {} messages in conversation {}, need {} to compact",
+                        stats.tokenCount(), compactThresholdTokens, stats.messageCount(), conversationId, messagesToCompact);
+                return false;
+            }
+            logger.debug("Token threshold reached ({}/{}). Triggering compaction for conversation {} ({} messages)",
+                    stats.tokenCount(), compactThresholdTokens, conversationId, stats.messageCount());
+            return true;
+        }
+        return false;
+    }
+
+    private void triggerCompaction(String conversationId, ConversationStats stats) {
+        if (compactionExecutor == null || exceedsHardCap(stats)) {
+            compactIfStillNeeded(conversationId, SummarizerScheduler.Priority.INTERACTIVE);
+            return;
+        }
+        scheduleCompaction(conversationId, compactionExecutor);
+    }
+
+    /**
+     * Streaming turns never compact on the response path: once the stream completes, a needed
+     * compaction goes to the async executor, or to Reactor's bounded elastic scheduler if async
+     * mode is off.
+     */
+    private void compactAfterStream(String conversationId) {
+        ConversationStats stats = getConversationStats(conversationId);
+        if (!needsCompaction(conversationId, stats)) {
+            return;
+        }
+        Executor executor = compactionExecutor != null ?
+                compactionExecutor : task -> Schedulers.boundedElastic().schedule(task);
+        scheduleCompaction(conversationId, executor);
+    }
+
+    private void scheduleCompaction(String conversationId, Executor executor) {
+        if (singleFlight.isInFlight(conversationId) || !pendingCompactions.add(conversationId)) {
+            logger.debug("Compaction already pending for conversation {}", conversationId);
+            return;
+        }
+        long scheduledAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    compactIfStillNeeded(conversationId, SummarizerScheduler.Priority.BACKGROUND);
+                    metrics.asyncSwapLatency().record(System.nanoTime() - scheduledAt, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException e) {
+                    logger.warn("Background compaction failed for conversation {}", conversationId, e);
+                } finally {
+                    pendingCompactions.remove(conversationId);
+                }
+            });
+            logger.debug("Scheduled background compaction for conversation {}", conversationId);
+        } catch (RejectedExecutionException e) {
+            // Still under the hard cap, so the next request simply tries again
+            pendingCompactions.remove(conversationId);
+            logger.debug("Compaction queue full, deferring compaction for conversation {}", conversationId);
+        }
+    }
+
+    /**
+     * Threshold-triggered compaction, deduplicated per conversation: concurrent triggers join the
+     * in-flight compaction, and a trigger that was already satisfied by it becomes a no-op.
+     */
+    private String compactIfStillNeeded(String conversationId, SummarizerScheduler.Priority priority) {
+        return singleFlight.execute(conversationId, () -> {
+            ConversationStats stats = getConversationStats(conversationId);
+            if (!needsCompaction(conversationId, stats)) {
+                logger.debug("Compaction no longer needed for conversation {}", conversationId);
+                return "Compaction no longer needed";
+            }
+            return performCompaction(conversationId, chatMemory.get(conversationId), priority);
+        });
+    }
+
+    /**
+     * Whether the next user/assistant turn would push the history past a hard limit, in which
+     * case the request can't go ahead with the uncompacted history.
+     */
+    private boolean exceedsHardCap(ConversationStats stats) {
+        return stats.messageCount() + 2 > maxMessages
+                || (maxTokens > 0 && stats.tokenCount() >= maxTokens);
+    }
+
+    private void addToMemory(String conversationId, Message message) {
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            // Past maxMessages the window may evict on its own, so re-measure rather than add
+            boolean windowMayEvict = getConversationStats(conversationId).messageCount() + 1 > maxMessages;
+            chatMemory.add(conversationId, message);
+            statsTracker.recordAdd(conversationId, estimateTokenCount(message));
+            if (windowMayEvict || !heapUsage.isTracked(conversationId)) {
+                heapUsage.set(conversationId, MessageSizes.estimateBytes(chatMemory.get(conversationId)));
+            } else {
+                heapUsage.add(conversationId, MessageSizes.estimateBytes(message));
+            }
+            if (maintenanceExecutor != null) {
+                activity.touch(conversationId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (maxHeapBytes > 0 && heapUsage.totalBytes() > maxHeapBytes) {
+            scheduleHeapBudgetEnforcement();
+        }
+    }
+
+    /**
+     * One sweep step: evict the idle conversations among the next {@code sweepBatchSize} tracked ones.
+     * Runs on the maintenance thread; package-private so tests can drive it without waiting for the schedule.
+     */
+    void sweepIdleConversations() {
+        for (ConversationActivity.LastAccess idle : activity.nextIdle(idleTtlNanos, sweepBatchSize)) {
+            if (evict(idle, idleEviction)) {
+                metrics.recordIdleEviction(idleEviction);
+            }
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweepIdleConversations();
+        } catch (RuntimeException e) {
+            // A failure must not cancel the schedule; the conversation is retried on a later sweep
+            logger.warn("Idle conversation sweep failed", e);
+        }
+    }
+
+    private void scheduleHeapBudgetEnforcement() {
+        if (!heapBudgetEnforcementPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            maintenanceExecutor.execute(() -> {
+                try {
+                    enforceHeapBudget();
+                } catch (RuntimeException e) {
+                    logger.warn("Heap budget enforcement failed", e);
+                } finally {
+                    heapBudgetEnforcementPending.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            heapBudgetEnforcementPending.set(false);
+        }
+    }
+
+    /**
+     * Evict conversations, largest or coldest first, until usage is back under the low watermark.
+     * Runs on the maintenance thread; package-private so tests can drive it directly.
+     */
+    void enforceHeapBudget() {
+        if (heapUsage.totalBytes() <= maxHeapBytes) {
+            return;
+        }
+        // Free a little more than strictly needed so the next few requests don't trigger another pass
+        long target = maxHeapBytes - maxHeapBytes / 10;
+        logger.debug("Heap budget exceeded ({} > {} bytes), evicting {} conversations first",
+                heapUsage.totalBytes(), maxHeapBytes, heapEvictionOrder.name().toLowerCase());
+
+        // A summarized conversation still holds its summary, and can only be dropped in a later pass
+        boolean evicted = true;
+        while (evicted && heapUsage.totalBytes() > target) {
+            evicted = evictUntil(target);
+        }
+    }
+
+    /**
+     * One eviction pass over every conversation holding heap, in heapEvictionOrder.
+     * @return Whether anything was evicted
+     */
+    private boolean evictUntil(long target) {
+        Map<String, Long> usage = heapUsage.snapshot();
+        List<HeapEvictionCandidate> candidates = new ArrayList<>(usage.size());
+        for (Map.Entry<String, Long> entry : usage.entrySet()) {
+            candidates.add(new HeapEvictionCandidate(entry.getKey(), entry.getValue(), activity.lastAccess(entry.getKey())));
+        }
+        candidates.sort(heapEvictionOrder == HeapEvictionOrder.COLDEST ?
+                Comparator.comparingLong(HeapEvictionCandidate::lastAccessNanos) :
+                Comparator.comparingLong(HeapEvictionCandidate::bytes).reversed());
+
+        boolean evicted = false;
+        for (HeapEvictionCandidate candidate : candidates) {
+            if (heapUsage.totalBytes() <= target) {
+                break;
+            }
+            if (candidate.lastAccess() == null) {
+                // No longer tracked: an earlier eviction already summarized it, only dropping frees more
+                if (dropSummarizedConversation(candidate.id())) {
+                    metrics.recordHeapEviction(EvictionAction.DROP);
+                    evicted = true;
+                }
+            } else if (evict(candidate.lastAccess(), heapEviction)) {
+                metrics.recordHeapEviction(heapEviction);
+                evicted = true;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Drop or summarize a conversation, unless a request touched it since {@code lastAccess} was read.
+     * @return Whether the conversation was evicted
+     */
+    private boolean evict(ConversationActivity.LastAccess lastAccess, EvictionAction action) {
+        return action == EvictionAction.SUMMARIZE ? summarizeConversation(lastAccess) : dropConversation(lastAccess);
+    }
+
+    private boolean dropConversation(ConversationActivity.LastAccess lastAccess) {
+        String conversationId = lastAccess.id();
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            if (!activity.untrack(lastAccess)) {
+                return false;
+            }
+            chatMemory.clear(conversationId);
+            statsTracker.remove(conversationId);
+            heapUsage.remove(conversationId);
+        } finally {
+            lock.unlock();
+        }
+        logger.debug("Dropped conversation {}", conversationId);
+        return true;
+    }
+
+    /**
+     * Drop a conversation that was summarized and untracked by an earlier eviction, unless a
+     * request has used it since, which tracks it again.
+     */
+    private boolean dropSummarizedConversation(String conversationId) {
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            if (activity.lastAccess(conversationId) != null || !heapUsage.isTracked(conversationId)) {
+                return false;
+            }
+            chatMemory.clear(conversationId);
+            statsTracker.remove(conversationId);
+            heapUsage.remove(conversationId);
+        } finally {
+            lock.unlock();
         }
+        logger.debug("Dropped summarized conversation {}", conversationId);
+        return true;
     }
 
-    private String performCompaction(String conversationId, List<Message> messages) {
-        int beforeTokens = estimateTokenCount(messages);
+    private boolean summarizeConversation(ConversationActivity.LastAccess lastAccess) {
+        String conversationId = lastAccess.id();
+        singleFlight.execute(conversationId, () -> {
+            if (!activity.isUntouchedSince(lastAccess)) {
+                return "Conversation is active again";
+            }
+            List<Message> messages = chatMemory.get(conversationId);
+            // Already a lone summary (or a lone message) besides pinned ones: nothing left to shrink
+            if (messages.stream().filter(msg -> !isPinned(msg)).count() < 2) {
+                return "Nothing to summarize";
+            }
+            logger.debug("Summarizing conversation {} ({} messages) before evicting its history",
+                    conversationId, messages.size());
+            return performCompaction(conversationId, messages, messages.size(), SummarizerScheduler.Priority.BACKGROUND);
+        });
+        // If the conversation resumed meanwhile, the swap kept its new messages and it stays tracked
+        return activity.untrack(lastAccess);
+    }
+
+    private String performCompaction(String conversationId, List<Message> messages, SummarizerScheduler.Priority priority) {
+        if (compactionPlanner == null) {
+            return performCompaction(conversationId, messages, messagesToCompact, priority);
+        }
+        // At the message threshold, compact at least as many messages as the fixed count would
+        int minMessages = messages.size() - (compactThreshold - messagesToCompact);
+        int count = compactionPlanner.plan(messages, minMessages);
+        if (count == 0) {
+            logger.debug("No turn boundary in conversation {} leaves the recent tail intact, skipping compaction", conversationId);
+            return "Nothing to compact: the recent tail covers the history";
+        }
+        logger.debug("Planned compaction of {} of {} messages for conversation {}", count, messages.size(), conversationId);
+        return performCompaction(conversationId, messages, count, priority);
+    }
+
+    private String performCompaction(String conversationId, List<Message> messages, int count,
+                                     SummarizerScheduler.Priority priority) {
+        try {
+            return metrics.compactionDuration().record(() -> compactOldestMessages(conversationId, messages, count, priority));
+        } catch (RuntimeException e) {
+            metrics.recordFailure();
+            throw e;
+        }
+    }
+
+    private String compactOldestMessages(String conversationId, List<Message> messages, int count,
+                                         SummarizerScheduler.Priority priority) {
+        int beforeTokens = getConversationStats(conversationId).tokenCount();
         logger.debug("Starting compaction for conversation {}. Total messages: {}, tokens: {}, compacting oldest: {}",
-                conversationId, messages.size(), beforeTokens, messagesToCompact);
+                conversationId, messages.size(), beforeTokens, count);
 
-        // Get the oldest messages to compact (exclude system messages)
-        List<Message> messagesToSummarize = messages.stream()
-                .limit(messagesToCompact)
+        // Get the oldest messages to compact; pinned ones among them are kept verbatim
+        List<Message> compactedRange = List.copyOf(messages.subList(0, Math.min(count, messages.size())));
+        List<Message> messagesToSummarize = compactedRange.stream()
+                .filter(msg -> !isPinned(msg))
                 .collect(Collectors.toList());
+        if (messagesToSummarize.isEmpty()) {
+            logger.debug("Every message in the compaction range of conversation {} is pinned, skipping compaction", conversationId);
+            return "Nothing to compact: every message in the range is pinned";
+        }
         int messagesToCompactTokens = estimateTokenCount(messagesToSummarize);
 
         // Build conversation text for summarization (skip SystemMessage - don't re-summarize summaries)
-        String conversationText = messagesToSummarize.stream()
+        List<String> transcript = messagesToSummarize.stream()
                 .filter(msg -> !(msg instanceof SystemMessage))  // Skip system messages (summaries from previous compactions)
-                .map(msg -> {
-                    String role = msg instanceof UserMessage ? "User" : "Assistant";
-                    String text = msg instanceof UserMessage ?
-                            ((UserMessage) msg).getText() :
-                            ((AssistantMessage) msg).getText();
-                    return role + ": " + text;
-                })
-                .collect(Collectors.joining("\n"));
+                .map(CompactingChatMemoryAdvisor::transcriptLine)
+                .collect(Collectors.toList());
 
-        logger.debug("Sending {} messages ({} tokens) to LLM for summarization", messagesToCompact, messagesToCompactTokens);
+        // In incremental mode, fold the previous summary forward instead of dropping it,
+        // so the summarizer only ever sees one summary plus the newly evicted delta
+        String previousSummary = incrementalSummary ? findPreviousSummary(messagesToSummarize) : null;
 
-        // Generate summary
-        String summary = summaryClient.prompt()
-                .user("Summarize the following conversation concisely, preserving key information and context:\n\n" + conversationText)
-                .call()
-                .content();
+        String summary;
+        int summaryInputTokens;
+        int summaryTokens;
+        if (compactionStrategy == CompactionStrategy.EXTRACTIVE) {
+            logger.debug("Extracting summary of {} messages ({} tokens) in-process{}",
+                    messagesToSummarize.size(), messagesToCompactTokens,
+                    previousSummary != null ? ", folding previous summary" : "");
+            summary = extractiveSummarizer.summarize(transcript, previousSummary);
+            summaryInputTokens = 0;
+        } else {
+            try {
+                // Ranges too large for one prompt are summarized chunk by chunk and merged
+                List<String> chunks = mapReduceSummarizer != null ? mapReduceSummarizer.chunk(transcript) : List.of();
+                if (chunks.size() > 1) {
+                    logger.debug("Sending {} messages ({} tokens) to LLM for summarization in {} chunks{}",
+                            messagesToSummarize.size(), messagesToCompactTokens, chunks.size(),
+                            previousSummary != null ? ", folding previous summary" : "");
+                    MapReduceSummarizer.Result result = mapReduceSummarizer.summarize(chunks, previousSummary,
+                            prompt -> callSummarizer(prompt, priority));
+                    summary = result.summary();
+                    summaryInputTokens = result.inputTokens();
+                } else {
+                    String conversationText = String.join("\n", transcript);
+                    String summaryPrompt = previousSummary != null ?
+                            "Update the running summary of a conversation with the new messages below. Keep every key fact, decision "
+                                    + "and piece of context from the existing summary unless the new messages supersede it, "
+                                    + "and stay concise.\n\nExisting summary:\n" + previousSummary
+                                    + "\n\nNew messages:\n" + conversationText :
+                            "Summarize the following conversation concisely, preserving key information and context:\n\n" + conversationText;
+                    summaryInputTokens = tokenCountEstimator.estimate(summaryPrompt);
 
-        int summaryTokens = tokenCountEstimator.estimate(summary);
-        logger.debug("Generated summary for {} messages: {} ({} tokens, saved {} tokens)",
-                messagesToCompact, summary, summaryTokens, messagesToCompactTokens - summaryTokens);
+                    logger.debug("Sending {} messages ({} tokens, {} prompt tokens{}) to LLM for summarization",
+                            messagesToSummarize.size(), messagesToCompactTokens, summaryInputTokens,
+                            previousSummary != null ? ", folding previous summary" : "");
 
-        // Clear old messages and add summary
-        logger.debug("Clearing memory and rebuilding with summary for conversation {}", conversationId);
-        chatMemory.clear(conversationId);
+                    // Generate summary
+                    summary = callSummarizer(summaryPrompt, priority);
+                }
+            } catch (SummarizerUnavailableException e) {
+                if (summarizerFallback == SummarizerFallback.NONE) {
+                    throw e;
+                }
+                logger.warn("Summarizer unavailable for conversation {} ({}), compacting with fallback {}",
+                        conversationId, e.getMessage(), summarizerFallback);
+                metrics.recordFallback(summarizerFallback);
+                summary = summarizerFallback == SummarizerFallback.EXTRACTIVE ?
+                        extractiveSummarizer.summarize(transcript, previousSummary) :
+                        truncationSummary(previousSummary, messagesToSummarize.size());
+                summaryInputTokens = 0;
+            }
+        }
+        summaryTokens = tokenCountEstimator.estimate(summary);
+        logger.debug("Generated summary for {} messages: {} ({} tokens, saved {} tokens)",
+                messagesToSummarize.size(), summary, summaryTokens, messagesToCompactTokens - summaryTokens);
 
         // Add summary as a system message (more semantically appropriate than AssistantMessage)
-        SystemMessage summaryMessage = new SystemMessage("Summary of previous conversation: " + summary);
-        chatMemory.add(conversationId, summaryMessage);
+        SystemMessage summaryMessage = SystemMessage.builder()
+                .text(SUMMARY_PREFIX + summary)
+                .metadata(Map.of(SUMMARY_METADATA_KEY, true))
+                .build();
+        List<Message> replacement = withPinnedMessages(compactedRange, summaryMessage);
+
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            // Re-read under the lock: messages may have been appended while the summary was generated
+            List<Message> current = chatMemory.get(conversationId);
+            if (current.size() < compactedRange.size()
+                    || !current.subList(0, compactedRange.size()).equals(compactedRange)) {
+                logger.debug("History of conversation {} changed during compaction, discarding summary", conversationId);
+                metrics.recordDiscarded();
+                return "Conversation changed during compaction; summary discarded";
+            }
+            ConversationStats currentStats = getConversationStats(conversationId);
 
-        // Add back remaining messages (after the compacted ones)
-        int remainingMessages = messages.size() - messagesToCompact;
-        logger.debug("Adding {} remaining messages back to memory", remainingMessages);
-        messages.stream()
-                .skip(messagesToCompact)
-                .forEach(msg -> chatMemory.add(conversationId, msg));
+            int remainingMessages = current.size() - compactedRange.size();
+            if (chatMemory instanceof CompactableChatMemory compactableMemory) {
+                logger.debug("Replacing {} oldest messages with summary and {} pinned messages for conversation {}",
+                        compactedRange.size(), replacement.size() - 1, conversationId);
+                compactableMemory.replacePrefix(conversationId, compactedRange.size(), replacement);
+            } else {
+                // Clear old messages and write summary plus remaining messages back in one batch
+                logger.debug("Clearing memory and rebuilding with summary and {} remaining messages for conversation {}",
+                        replacement.size() - 1 + remainingMessages, conversationId);
+                List<Message> rebuilt = new ArrayList<>(replacement.size() + remainingMessages);
+                rebuilt.addAll(replacement);
+                rebuilt.addAll(current.subList(compactedRange.size(), current.size()));
+                chatMemory.clear(conversationId);
+                chatMemory.add(conversationId, rebuilt);
+            }
 
-        List<Message> finalMessages = chatMemory.get(conversationId);
-        int newMessageCount = finalMessages.size();
-        int afterTokens = estimateTokenCount(finalMessages);
-        int tokensSaved = beforeTokens - afterTokens;
+            // Totals follow from what was written; no need to re-read and re-count the history
+            int newMessageCount = replacement.size() + remainingMessages;
+            heapUsage.set(conversationId, MessageSizes.estimateBytes(replacement)
+                    + MessageSizes.estimateBytes(current.subList(compactedRange.size(), current.size())));
+            int afterTokens = currentStats.tokenCount() - messagesToCompactTokens + estimateTokenCount(summaryMessage);
+            statsTracker.reset(conversationId, newMessageCount, afterTokens);
+            int tokensSaved = currentStats.tokenCount() - afterTokens;
+            metrics.recordCompaction(currentStats.tokenCount(), afterTokens);
 
-        logger.debug("Compaction complete for conversation {}. Messages: {} -> {}, Tokens: {} -> {} (saved {} tokens)",
-                conversationId, messages.size(), newMessageCount, beforeTokens, afterTokens, tokensSaved);
+            logger.debug("Compaction complete for conversation {}. Messages: {} -> {}, Tokens: {} -> {} (saved {} tokens)",
+                    conversationId, current.size(), newMessageCount, currentStats.tokenCount(), afterTokens, tokensSaved);
+
+            return String.format("Compacted %d messages into summary. Messages: %d -> %d, Tokens: %d -> %d (saved %d tokens). "
+                            + "Summarizer tokens: %d in, %d out",
+                    messagesToSummarize.size(), current.size(), newMessageCount, currentStats.tokenCount(), afterTokens, tokensSaved,
+                    summaryInputTokens, summaryTokens);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        return String.format("Compacted %d messages into summary. Messages: %d -> %d, Tokens: %d -> %d (saved %d tokens)",
-                messagesToCompact, messages.size(), newMessageCount, beforeTokens, afterTokens, tokensSaved);
+    /**
+     * What replaces a compacted range: its pinned messages in their original order, with the
+     * summary in place of the first summarized message.
+     */
+    private List<Message> withPinnedMessages(List<Message> compactedRange, Message summary) {
+        List<Message> replacement = new ArrayList<>();
+        boolean summaryAdded = false;
+        for (Message message : compactedRange) {
+            if (isPinned(message)) {
+                replacement.add(message);
+            } else if (!summaryAdded) {
+                replacement.add(summary);
+                summaryAdded = true;
+            }
+        }
+        return replacement;
+    }
+
+    /**
+     * One summarizer call, served from the summary cache when the same prompt was summarized before,
+     * and otherwise admitted by the summarizer scheduler, if there is one, at the given priority.
+     * @throws SummarizerUnavailableException If the call failed, timed out or was refused by the circuit breaker
+     */
+    private String callSummarizer(String prompt, SummarizerScheduler.Priority priority) {
+        String key = summaryCache != null ? SummaryCache.key(summarizerModel, SUMMARY_PROMPT_VERSION, prompt) : null;
+        if (key != null) {
+            String cached = summaryCache.get(key);
+            if (cached != null) {
+                logger.debug("Summary cache hit, skipping the summarizer call");
+                return cached;
+            }
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw new SummarizerUnavailableException("circuit breaker is open", null);
+        }
+        int promptTokens = tokenCountEstimator.estimate(prompt);
+        String summary;
+        try {
+            summary = scheduleSummarizer(prompt, promptTokens, priority);
+        } catch (RuntimeException e) {
+            if (circuitBreaker != null) {
+                circuitBreaker.recordFailure();
+            }
+            throw e instanceof SummarizerUnavailableException unavailable ?
+                    unavailable : new SummarizerUnavailableException("summarizer call failed: " + e.getMessage(), e);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.recordSuccess();
+        }
+        int summaryTokens = tokenCountEstimator.estimate(summary);
+        metrics.recordSummarizerTokens(promptTokens, summaryTokens);
+        if (summarizerScheduler != null) {
+            summarizerScheduler.recordTokens(summaryTokens);
+        }
+        if (key != null && summary != null) {
+            summaryCache.put(key, summary);
+        }
+        return summary;
+    }
+
+    private String scheduleSummarizer(String prompt, int promptTokens, SummarizerScheduler.Priority priority) {
+        if (summarizerScheduler == null) {
+            return invokeSummarizer(prompt);
+        }
+        long queuedAt = System.nanoTime();
+        SummarizerScheduler.Permit permit;
+        try {
+            permit = summarizerScheduler.acquire(priority, promptTokens);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SummarizerUnavailableException("interrupted while queued for the summarizer", e);
+        }
+        metrics.recordSchedulerWait(priority, System.nanoTime() - queuedAt);
+        try (permit) {
+            return invokeSummarizer(prompt);
+        }
+    }
+
+    private String invokeSummarizer(String prompt) {
+        if (summarizerExecutor == null) {
+            return requestSummary(prompt);
+        }
+        Future<String> future = summarizerExecutor.submit(() -> requestSummary(prompt));
+        try {
+            return future.get(summarizerTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            metrics.recordSummarizerTimeout();
+            throw new SummarizerUnavailableException(
+                    "no answer within " + Duration.ofNanos(summarizerTimeoutNanos), e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SummarizerUnavailableException("interrupted while waiting for the summarizer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private String requestSummary(String prompt) {
+        return metrics.summarizerDuration().record(() -> summaryClient.prompt()
+                .user(prompt)
+                .call()
+                .content());
+    }
+
+    /**
+     * Summary left by {@link SummarizerFallback#TRUNCATE}: the range is dropped, only an earlier summary survives.
+     */
+    private static String truncationSummary(String previousSummary, int droppedMessages) {
+        String note = "(" + droppedMessages + " earlier messages were dropped without summarizing)";
+        return previousSummary != null ? previousSummary + "\n" + note : note;
+    }
+
+    /**
+     * Text of the summary left by an earlier compaction within the range, if any.
+     */
+    private static String findPreviousSummary(List<Message> messages) {
+        return messages.stream()
+                .filter(CompactingChatMemoryAdvisor::isSummary)
+                .map(msg -> msg.getText().startsWith(SUMMARY_PREFIX) ?
+                        msg.getText().substring(SUMMARY_PREFIX.length()) : msg.getText())
+                .reduce((first, second) -> second)
+                .orElse(null);
+    }
+
+    /**
+     * Whether a message is a compaction summary; older summaries may predate the metadata flag.
+     */
+    static boolean isSummary(Message message) {
+        return message instanceof SystemMessage
+                && (Boolean.TRUE.equals(message.getMetadata().get(SUMMARY_METADATA_KEY))
+                || message.getText().startsWith(SUMMARY_PREFIX));
+    }
+
+    /**
+     * Whether compaction must keep a message verbatim. Summaries are never pinned, so they can be
+     * folded into the next one.
+     */
+    boolean isPinned(Message message) {
+        if (isSummary(message)) {
+            return false;
+        }
+        return message instanceof SystemMessage
+                || Boolean.TRUE.equals(message.getMetadata().get(PINNED_METADATA_KEY))
+                || pinnedMessages.test(message);
     }
 
     private String getConversationId(ChatClientRequest request) {
@@ -260,21 +1106,435 @@ public class CompactingChatMemoryAdvisor implements CallAdvisor {
                 .getOrDefault(ChatMemory.CONVERSATION_ID, DEFAULT_CONVERSATION_ID);
     }
 
+    /**
+     * One message as the summarizer sees it, prefixed with its role. Tool calls and tool results carry
+     * their payload outside the message text, so it is spelled out.
+     */
+    private static String transcriptLine(Message msg) {
+        String text = msg.getText() != null ? msg.getText() : "";
+        if (msg instanceof UserMessage) {
+            return "User: " + text;
+        }
+        if (msg instanceof AssistantMessage assistant) {
+            StringBuilder line = new StringBuilder("Assistant:");
+            if (!text.isEmpty()) {
+                line.append(' ').append(text);
+            }
+            for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                line.append(" [called ").append(call.name()).append('(').append(call.arguments()).append(")]");
+            }
+            return line.toString();
+        }
+        if (msg instanceof ToolResponseMessage tool) {
+            return tool.getResponses().stream()
+                    .map(response -> "Tool " + response.name() + ": " + response.responseData())
+                    .collect(Collectors.joining("\n"));
+        }
+        return msg.getMessageType().getValue() + ": " + text;
+    }
+
     /**
      * Estimate the total number of tokens in a list of messages.
      */
     private int estimateTokenCount(List<Message> messages) {
         return messages.stream()
-                .mapToInt(msg -> {
-                    String text = msg instanceof UserMessage ?
-                            ((UserMessage) msg).getText() :
-                            (msg instanceof AssistantMessage ? ((AssistantMessage) msg).getText() :
-                                    (msg instanceof SystemMessage ? ((SystemMessage) msg).getText() : ""));
-                    return tokenCountEstimator.estimate(text);
-                })
+                .mapToInt(this::estimateTokenCount)
                 .sum();
     }
 
+    /**
+     * Tokens of a message's text plus the payload it carries outside the text: tool call names and
+     * arguments, and tool results. Matches what {@link #transcriptLine(Message)} sends the summarizer,
+     * less the role prefixes.
+     */
+    private int estimateTokenCount(Message msg) {
+        int tokens = tokenCountEstimator.estimate(msg.getText());
+        if (msg instanceof AssistantMessage assistant) {
+            for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                tokens += tokenCountEstimator.estimate(call.name()) + tokenCountEstimator.estimate(call.arguments());
+            }
+        } else if (msg instanceof ToolResponseMessage tool) {
+            for (ToolResponseMessage.ToolResponse response : tool.getResponses()) {
+                tokens += tokenCountEstimator.estimate(response.responseData());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Stop the maintenance thread and the background compaction executor, letting queued compactions finish.
+     */
+    @Override
+    public void close() {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdown();
+        }
+        if (summarizerExecutor != null) {
+            summarizerExecutor.shutdown();
+        }
+    }
+
+    /**
+     * What happens to a conversation evicted for being idle or to bring memory back under the heap budget.
+     */
+    public enum EvictionAction {
+        /**
+         * Delete the whole history
+         */
+        DROP,
+
+        /**
+         * Replace the whole history with a single summary, so the conversation can resume with its context
+         */
+        SUMMARIZE
+    }
+
+    /**
+     * How the oldest messages are condensed into the summary that replaces them.
+     */
+    public enum CompactionStrategy {
+        /**
+         * The summarizer model rewrites them into a concise summary
+         */
+        LLM,
+
+        /**
+         * Their highest-scoring sentences are kept verbatim, in-process, without a model call
+         */
+        EXTRACTIVE
+    }
+
+    /**
+     * How a compaction proceeds when the summarizer fails, times out or is refused by the circuit breaker.
+     */
+    public enum SummarizerFallback {
+        /**
+         * Fail the compaction; the history stays as it is until the next attempt
+         */
+        NONE,
+
+        /**
+         * Drop the range, keeping only the summary from an earlier compaction
+         */
+        TRUNCATE,
+
+        /**
+         * Compact in-process with the extractive strategy instead
+         */
+        EXTRACTIVE
+    }
+
+    /**
+     * Raised when the summarizer could not produce a summary: the call failed, timed out or was refused.
+     */
+    static final class SummarizerUnavailableException extends RuntimeException {
+
+        SummarizerUnavailableException(String message, Throwable cause) {
+            super("Summarizer unavailable: " + message, cause);
+        }
+    }
+
+    /**
+     * Which conversations are evicted first when the heap budget is exceeded.
+     */
+    public enum HeapEvictionOrder {
+        /**
+         * Most retained bytes first, freeing the budget with the fewest evictions
+         */
+        LARGEST,
+
+        /**
+         * Least recently used first
+         */
+        COLDEST
+    }
+
+    public static Builder builder(ChatMemory chatMemory, ChatModel chatModel) {
+        return new Builder(chatMemory, chatModel);
+    }
+
+    /**
+     * A conversation holding heap; {@code lastAccess} is null once an earlier eviction summarized it.
+     */
+    private record HeapEvictionCandidate(String id, long bytes, ConversationActivity.LastAccess lastAccess) {
+
+        long lastAccessNanos() {
+            // Untracked conversations have been idle at least since they were summarized
+            return lastAccess != null ? lastAccess.nanos() : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Builder for {@link CompactingChatMemoryAdvisor}. Token limits default to 0 (disabled),
+     * so only the message-count thresholds apply unless configured.
+     */
+    public static final class Builder {
+
+        private final ChatMemory chatMemory;
+        private final ChatModel chatModel;
+        private int maxMessages = 20;
+        private int compactThreshold = 15;
+        private int messagesToCompact = 8;
+        private int maxTokens;
+        private int compactThresholdTokens;
+        private int tokenCountCacheSize = CachingTokenCountEstimator.DEFAULT_MAX_ENTRIES;
+        private boolean asyncCompaction;
+        private boolean incrementalSummary;
+        private int mapReduceChunkTokens;
+        private int mapReduceConcurrency = 4;
+        private SummaryCache summaryCache;
+        private SummarizerScheduler summarizerScheduler;
+        private Predicate<Message> pinnedMessages = message -> false;
+        private int compactionTargetTokens;
+        private int recentTailTokens;
+        private CompactionStrategy compactionStrategy = CompactionStrategy.LLM;
+        private int extractiveTokenBudget = 500;
+        private Duration summarizerTimeout = Duration.ZERO;
+        private int breakerFailureThreshold = 5;
+        private Duration breakerOpenDuration = Duration.ofSeconds(30);
+        private SummarizerFallback summarizerFallback = SummarizerFallback.NONE;
+        private int asyncConcurrency = 4;
+        private int asyncQueueCapacity = 1000;
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+        private String name = "default";
+        private LongSupplier nanoClock = System::nanoTime;
+        private Duration idleTtl = Duration.ZERO;
+        private EvictionAction idleEviction = EvictionAction.SUMMARIZE;
+        private Duration sweepInterval = Duration.ofMinutes(1);
+        private int sweepBatchSize = 1000;
+        private long maxHeapBytes;
+        private EvictionAction heapEviction = EvictionAction.SUMMARIZE;
+        private HeapEvictionOrder heapEvictionOrder = HeapEvictionOrder.LARGEST;
+
+        private Builder(ChatMemory chatMemory, ChatModel chatModel) {
+            this.chatMemory = chatMemory;
+            this.chatModel = chatModel;
+        }
+
+        public Builder maxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        public Builder compactThreshold(int compactThreshold) {
+            this.compactThreshold = compactThreshold;
+            return this;
+        }
+
+        public Builder messagesToCompact(int messagesToCompact) {
+            this.messagesToCompact = messagesToCompact;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder compactThresholdTokens(int compactThresholdTokens) {
+            this.compactThresholdTokens = compactThresholdTokens;
+            return this;
+        }
+
+        /**
+         * Message texts whose token counts are cached; defaults to {@link CachingTokenCountEstimator#DEFAULT_MAX_ENTRIES}.
+         */
+        public Builder tokenCountCacheSize(int tokenCountCacheSize) {
+            this.tokenCountCacheSize = tokenCountCacheSize;
+            return this;
+        }
+
+        public Builder incrementalSummary(boolean incrementalSummary) {
+            this.incrementalSummary = incrementalSummary;
+            return this;
+        }
+
+        /**
+         * Tokens the history should fit after each compaction, choosing how many messages to compact;
+         * 0 (the default) always compacts messagesToCompact messages.
+         */
+        public Builder compactionTargetTokens(int compactionTargetTokens) {
+            this.compactionTargetTokens = compactionTargetTokens;
+            return this;
+        }
+
+        /**
+         * Tokens of the most recent messages a planned compaction always keeps verbatim.
+         */
+        public Builder recentTailTokens(int recentTailTokens) {
+            this.recentTailTokens = recentTailTokens;
+            return this;
+        }
+
+        /**
+         * Pin the messages matching this predicate, in addition to system messages and messages
+         * flagged with {@value CompactingChatMemoryAdvisor#PINNED_METADATA_KEY}.
+         */
+        public Builder pinnedMessages(Predicate<Message> pinnedMessages) {
+            this.pinnedMessages = Objects.requireNonNull(pinnedMessages, "pinnedMessages must not be null");
+            return this;
+        }
+
+        public Builder compactionStrategy(CompactionStrategy compactionStrategy) {
+            this.compactionStrategy = compactionStrategy;
+            return this;
+        }
+
+        /**
+         * Maximum tokens of sentences the extractive strategy keeps per summary.
+         */
+        public Builder extractiveTokenBudget(int extractiveTokenBudget) {
+            this.extractiveTokenBudget = extractiveTokenBudget;
+            return this;
+        }
+
+        /**
+         * Longest a single summarizer call may take; zero (the default) waits indefinitely.
+         */
+        public Builder summarizerTimeout(Duration summarizerTimeout) {
+            this.summarizerTimeout = summarizerTimeout;
+            return this;
+        }
+
+        /**
+         * Consecutive failed summarizer calls that open the circuit breaker; 0 disables the breaker.
+         */
+        public Builder breakerFailureThreshold(int breakerFailureThreshold) {
+            this.breakerFailureThreshold = breakerFailureThreshold;
+            return this;
+        }
+
+        public Builder breakerOpenDuration(Duration breakerOpenDuration) {
+            this.breakerOpenDuration = breakerOpenDuration;
+            return this;
+        }
+
+        public Builder summarizerFallback(SummarizerFallback summarizerFallback) {
+            this.summarizerFallback = summarizerFallback;
+            return this;
+        }
+
+        /**
+         * Summarize compaction ranges larger than this many tokens in parallel chunks of at most
+         * this size; 0 (the default) always sends the whole range in one prompt.
+         */
+        public Builder mapReduceChunkTokens(int mapReduceChunkTokens) {
+            this.mapReduceChunkTokens = mapReduceChunkTokens;
+            return this;
+        }
+
+        /**
+         * Chunks of one compaction summarized at once; calls across compactions are bounded by the summarizerScheduler.
+         */
+        public Builder mapReduceConcurrency(int mapReduceConcurrency) {
+            this.mapReduceConcurrency = mapReduceConcurrency;
+            return this;
+        }
+
+        /**
+         * Cache summarizer replies by prompt content; null (the default) always calls the summarizer.
+         * One cache may be shared by several advisors.
+         */
+        public Builder summaryCache(SummaryCache summaryCache) {
+            this.summaryCache = summaryCache;
+            return this;
+        }
+
+        /**
+         * Admit summarizer calls through this scheduler; null (the default) calls the summarizer directly.
+         * Share one scheduler between all advisors using the same summarizer provider.
+         */
+        public Builder summarizerScheduler(SummarizerScheduler summarizerScheduler) {
+            this.summarizerScheduler = summarizerScheduler;
+            return this;
+        }
+
+        public Builder asyncCompaction(boolean asyncCompaction) {
+            this.asyncCompaction = asyncCompaction;
+            return this;
+        }
+
+        public Builder asyncConcurrency(int asyncConcurrency) {
+            this.asyncConcurrency = asyncConcurrency;
+            return this;
+        }
+
+        public Builder asyncQueueCapacity(int asyncQueueCapacity) {
+            this.asyncQueueCapacity = asyncQueueCapacity;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        /**
+         * Name of this advisor, published as the {@code advisor} tag of its gauges so that several
+         * advisors can share a meter registry. Defaults to {@code default}.
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Clock for idle tracking and the circuit breaker, so tests can move time forward instead of sleeping.
+         */
+        Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        /**
+         * Evict conversations not used for this long; zero (the default) disables idle eviction.
+         */
+        public Builder idleTtl(Duration idleTtl) {
+            this.idleTtl = idleTtl;
+            return this;
+        }
+
+        public Builder idleEviction(EvictionAction idleEviction) {
+            this.idleEviction = idleEviction;
+            return this;
+        }
+
+        public Builder sweepInterval(Duration sweepInterval) {
+            this.sweepInterval = sweepInterval;
+            return this;
+        }
+
+        public Builder sweepBatchSize(int sweepBatchSize) {
+            this.sweepBatchSize = sweepBatchSize;
+            return this;
+        }
+
+        /**
+         * Approximate heap bytes all conversation history may retain; 0 (the default) disables the budget.
+         */
+        public Builder maxHeapBytes(long maxHeapBytes) {
+            this.maxHeapBytes = maxHeapBytes;
+            return this;
+        }
+
+        public Builder heapEviction(EvictionAction heapEviction) {
+            this.heapEviction = heapEviction;
+            return this;
+        }
+
+        public Builder heapEvictionOrder(HeapEvictionOrder heapEvictionOrder) {
+            this.heapEvictionOrder = heapEvictionOrder;
+            return this;
+        }
+
+        public CompactingChatMemoryAdvisor build() {
+            return new CompactingChatMemoryAdvisor(this);
+        }
+    }
+
     @NotNull
     @Override
     public String getName() {
@@ -0,0 +1,245 @@
+package com.saq.chatMemory.advisor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Micrometer meters for the compaction subsystem, registered under the {@code chat.memory.compaction} prefix,
+ * plus the advisor's own per-request overhead under {@code chat.memory.advisor} and heap usage of
+ * the history under {@code chat.memory.heap}.
+ *
+ * <p>Counters and timers of several advisors on one registry add up. Gauges and function counters
+ * observe one advisor's own state, so they carry an {@code advisor} tag with the advisor's name;
+ * without it the registry would keep only the first advisor's registration.
+ */
+final class CompactionMetrics {
+
+    static final String PREFIX = "chat.memory.compaction";
+    static final String ADVISOR_PREFIX = "chat.memory.advisor";
+    static final String MEMORY_PREFIX = "chat.memory";
+
+    private final MeterRegistry registry;
+    private final Tags advisorTags;
+    private final Timer adviseOverhead;
+    private final Timer compactionDuration;
+    private final Timer summarizerDuration;
+    private final Timer asyncSwapLatency;
+    private final DistributionSummary tokensBefore;
+    private final DistributionSummary tokensAfter;
+    private final DistributionSummary summarizerInputTokens;
+    private final DistributionSummary summarizerOutputTokens;
+    private final Counter compactions;
+    private final Counter failures;
+    private final Counter discarded;
+    private final Counter tokensSaved;
+    private final Counter idleDrops;
+    private final Counter idleSummaries;
+    private final Counter heapDrops;
+    private final Counter heapSummaries;
+    private final Counter summarizerTimeouts;
+    private final Counter truncationFallbacks;
+    private final Counter extractiveFallbacks;
+    private final Timer interactiveSchedulerWait;
+    private final Timer backgroundSchedulerWait;
+
+    CompactionMetrics(MeterRegistry registry, String advisorName) {
+        this.registry = registry;
+        this.advisorTags = Tags.of("advisor", advisorName);
+        this.adviseOverhead = Timer.builder(ADVISOR_PREFIX + ".overhead")
+                .description("Time adviseCall spends on memory and compaction, excluding the downstream model call")
+                .register(registry);
+        this.compactionDuration = Timer.builder(PREFIX + ".duration")
+                .description("Time to compact a conversation, summarizer call included")
+                .register(registry);
+        this.summarizerDuration = Timer.builder(PREFIX + ".summarizer.duration")
+                .description("Time spent waiting for the summarizer model")
+                .register(registry);
+        this.asyncSwapLatency = Timer.builder(PREFIX + ".async.swap.latency")
+                .description("Time from scheduling a background compaction until its summary is swapped into memory")
+                .register(registry);
+        this.tokensBefore = DistributionSummary.builder(PREFIX + ".prompt.tokens.before")
+                .description("Estimated prompt tokens held in memory before a compaction")
+                .baseUnit("tokens")
+                .register(registry);
+        this.tokensAfter = DistributionSummary.builder(PREFIX + ".prompt.tokens.after")
+                .description("Estimated prompt tokens held in memory after a compaction")
+                .baseUnit("tokens")
+                .register(registry);
+        this.summarizerInputTokens = DistributionSummary.builder(PREFIX + ".summarizer.input.tokens")
+                .description("Estimated tokens sent to the summarizer per call")
+                .baseUnit("tokens")
+                .register(registry);
+        this.summarizerOutputTokens = DistributionSummary.builder(PREFIX + ".summarizer.output.tokens")
+                .description("Estimated tokens in the summary returned per call")
+                .baseUnit("tokens")
+                .register(registry);
+        this.compactions = Counter.builder(PREFIX + ".count")
+                .description("Compactions applied to memory")
+                .register(registry);
+        this.failures = Counter.builder(PREFIX + ".failures")
+                .description("Compactions that failed with an exception")
+                .register(registry);
+        this.discarded = Counter.builder(PREFIX + ".discarded")
+                .description("Summaries discarded because the history changed while they were generated")
+                .register(registry);
+        this.tokensSaved = Counter.builder(PREFIX + ".tokens.saved")
+                .description("Estimated prompt tokens removed from memory by compaction")
+                .baseUnit("tokens")
+                .register(registry);
+        this.idleDrops = idleEvictions(registry, "drop");
+        this.idleSummaries = idleEvictions(registry, "summarize");
+        this.heapDrops = heapEvictions(registry, "drop");
+        this.heapSummaries = heapEvictions(registry, "summarize");
+        this.summarizerTimeouts = Counter.builder(PREFIX + ".summarizer.timeouts")
+                .description("Summarizer calls abandoned after the summarizer timeout")
+                .register(registry);
+        this.truncationFallbacks = fallbacks(registry, "truncate");
+        this.extractiveFallbacks = fallbacks(registry, "extractive");
+        this.interactiveSchedulerWait = schedulerWait(registry, "interactive");
+        this.backgroundSchedulerWait = schedulerWait(registry, "background");
+    }
+
+    private static Timer schedulerWait(MeterRegistry registry, String priority) {
+        return Timer.builder(PREFIX + ".scheduler.wait")
+                .description("Time summarizer calls waited for admission by the summarizer scheduler")
+                .tag("priority", priority)
+                .register(registry);
+    }
+
+    private static Counter fallbacks(MeterRegistry registry, String fallback) {
+        return Counter.builder(PREFIX + ".fallbacks")
+                .description("Compactions completed without the summarizer because it failed, timed out or its breaker was open")
+                .tag("fallback", fallback)
+                .register(registry);
+    }
+
+    private static Counter idleEvictions(MeterRegistry registry, String action) {
+        return Counter.builder(PREFIX + ".idle.evictions")
+                .description("Idle conversations evicted by the sweeper")
+                .tag("action", action)
+                .register(registry);
+    }
+
+    private static Counter heapEvictions(MeterRegistry registry, String action) {
+        return Counter.builder(MEMORY_PREFIX + ".heap.evictions")
+                .description("Conversations evicted to bring history back under the heap budget")
+                .tag("action", action)
+                .register(registry);
+    }
+
+    void bindAsyncExecutor(ThreadPoolExecutor executor) {
+        Gauge.builder(PREFIX + ".async.queue.depth", executor, e -> e.getQueue().size())
+                .description("Background compactions waiting for an executor thread")
+                .tags(advisorTags)
+                .register(registry);
+        Gauge.builder(PREFIX + ".async.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Background compactions currently running")
+                .tags(advisorTags)
+                .register(registry);
+    }
+
+    void bindSummaryCache(SummaryCache cache) {
+        FunctionCounter.builder(PREFIX + ".summary.cache.gets", cache, SummaryCache::memoryHits)
+                .description("Summary cache lookups")
+                .tags("result", "hit", "tier", "memory")
+                .tags(advisorTags)
+                .register(registry);
+        FunctionCounter.builder(PREFIX + ".summary.cache.gets", cache, SummaryCache::diskHits)
+                .description("Summary cache lookups")
+                .tags("result", "hit", "tier", "disk")
+                .tags(advisorTags)
+                .register(registry);
+        FunctionCounter.builder(PREFIX + ".summary.cache.gets", cache, SummaryCache::misses)
+                .description("Summary cache lookups")
+                .tags("result", "miss", "tier", "none")
+                .tags(advisorTags)
+                .register(registry);
+        Gauge.builder(PREFIX + ".summary.cache.hit.ratio", cache, SummaryCache::hitRatio)
+                .description("Fraction of summarizer prompts answered from the summary cache")
+                .tags(advisorTags)
+                .register(registry);
+    }
+
+    void bindCircuitBreaker(SummarizerCircuitBreaker breaker) {
+        Gauge.builder(PREFIX + ".summarizer.breaker.state", breaker, b -> b.state().ordinal())
+                .description("Summarizer circuit breaker state: 0 closed, 1 half-open, 2 open")
+                .tags(advisorTags)
+                .register(registry);
+    }
+
+    void recordSchedulerWait(SummarizerScheduler.Priority priority, long nanos) {
+        (priority == SummarizerScheduler.Priority.INTERACTIVE ? interactiveSchedulerWait : backgroundSchedulerWait)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordSummarizerTimeout() {
+        summarizerTimeouts.increment();
+    }
+
+    void recordFallback(CompactingChatMemoryAdvisor.SummarizerFallback fallback) {
+        (fallback == CompactingChatMemoryAdvisor.SummarizerFallback.TRUNCATE ? truncationFallbacks : extractiveFallbacks).increment();
+    }
+
+    void recordAdviseOverhead(long nanos) {
+        adviseOverhead.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordSummarizerTokens(int inputTokens, int outputTokens) {
+        summarizerInputTokens.record(inputTokens);
+        summarizerOutputTokens.record(outputTokens);
+    }
+
+    void recordCompaction(int beforeTokens, int afterTokens) {
+        compactions.increment();
+        tokensBefore.record(beforeTokens);
+        tokensAfter.record(afterTokens);
+        if (beforeTokens > afterTokens) {
+            tokensSaved.increment(beforeTokens - afterTokens);
+        }
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    void recordDiscarded() {
+        discarded.increment();
+    }
+
+    void bindHeapUsage(LongSupplier totalBytes) {
+        Gauge.builder(MEMORY_PREFIX + ".heap.usage", totalBytes, supplier -> supplier.getAsLong())
+                .description("Approximate heap bytes retained by conversation history")
+                .baseUnit("bytes")
+                .tags(advisorTags)
+                .register(registry);
+    }
+
+    void recordIdleEviction(CompactingChatMemoryAdvisor.EvictionAction action) {
+        (action == CompactingChatMemoryAdvisor.EvictionAction.DROP ? idleDrops : idleSummaries).increment();
+    }
+
+    void recordHeapEviction(CompactingChatMemoryAdvisor.EvictionAction action) {
+        (action == CompactingChatMemoryAdvisor.EvictionAction.DROP ? heapDrops : heapSummaries).increment();
+    }
+
+    Timer compactionDuration() {
+        return compactionDuration;
+    }
+
+    Timer summarizerDuration() {
+        return summarizerDuration;
+    }
+
+    Timer asyncSwapLatency() {
+        return asyncSwapLatency;
+    }
+}
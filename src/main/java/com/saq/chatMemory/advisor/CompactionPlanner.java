@@ -0,0 +1,106 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Chooses how many of the oldest messages a compaction replaces, by tokens rather than by a fixed
+ * message count, so every compaction brings the history back under the same token target.
+ *
+ * <p>The boundary is the first message kept. It only ever falls at the start of a turn, never
+ * between a user message and the assistant and tool messages answering it, and never inside the
+ * latest turn. Among those boundaries the planner picks the earliest one that
+ * <ul>
+ *   <li>compacts at least the requested minimum number of messages,</li>
+ *   <li>leaves the kept messages plus the expected summary within {@code targetTokens},</li>
+ *   <li>and still keeps at least {@code recentTailTokens} of the most recent messages verbatim.</li>
+ * </ul>
+ * When the target and the tail conflict, the tail wins: the planner compacts as far as the tail allows.
+ *
+ * <p>Pinned messages before the boundary are not summarized but kept verbatim, so their tokens
+ * count as kept alongside the messages after it. They don't count toward the recent tail.
+ */
+final class CompactionPlanner {
+
+    private final int targetTokens;
+    private final int recentTailTokens;
+    private final int summaryTokens;
+    private final ToIntFunction<Message> tokenCounter;
+    private final Predicate<Message> pinned;
+
+    /**
+     * @param summaryTokens Tokens reserved for the summary that replaces the compacted messages
+     * @param pinned        Messages a compaction keeps verbatim wherever the boundary falls
+     */
+    CompactionPlanner(int targetTokens, int recentTailTokens, int summaryTokens, ToIntFunction<Message> tokenCounter,
+                      Predicate<Message> pinned) {
+        if (targetTokens < 1 || recentTailTokens < 0 || summaryTokens < 0) {
+            throw new IllegalArgumentException("targetTokens must be positive, recentTailTokens and summaryTokens not negative");
+        }
+        this.targetTokens = targetTokens;
+        this.recentTailTokens = recentTailTokens;
+        this.summaryTokens = summaryTokens;
+        this.tokenCounter = tokenCounter;
+        this.pinned = pinned;
+    }
+
+    /**
+     * @param minMessages Fewest messages worth compacting
+     * @return Number of oldest messages to compact, or 0 if no boundary compacts at least two
+     */
+    int plan(List<Message> messages, int minMessages) {
+        int n = messages.size();
+        // suffixTokens[b]: tokens after a boundary at b; pinnedTokens[b]: pinned tokens before it
+        int[] suffixTokens = new int[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            suffixTokens[i] = suffixTokens[i + 1] + tokenCounter.applyAsInt(messages.get(i));
+        }
+        int[] pinnedTokens = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            Message message = messages.get(i);
+            pinnedTokens[i + 1] = pinnedTokens[i] + (pinned.test(message) ? tokenCounter.applyAsInt(message) : 0);
+        }
+
+        int lastTurnStart = n - 1;
+        while (lastTurnStart > 0 && !startsTurn(messages.get(lastTurnStart))) {
+            lastTurnStart--;
+        }
+
+        int latest = 0;
+        for (int b = Math.max(2, minMessages); b <= lastTurnStart; b++) {
+            if (suffixTokens[b] < recentTailTokens) {
+                // Later boundaries keep even less
+                break;
+            }
+            if (!startsTurn(messages.get(b))) {
+                continue;
+            }
+            latest = b;
+            if (suffixTokens[b] + pinnedTokens[b] + summaryTokens <= targetTokens) {
+                return b;
+            }
+        }
+        if (latest > 0) {
+            return latest;
+        }
+        // The minimum lies beyond the tail: compact as far as the tail allows, if that is still worth it
+        for (int b = Math.min(lastTurnStart, Math.max(2, minMessages) - 1); b >= 2; b--) {
+            if (startsTurn(messages.get(b)) && suffixTokens[b] >= recentTailTokens) {
+                return b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Assistant replies and tool results belong to the turn of the user message before them.
+     */
+    private static boolean startsTurn(Message message) {
+        return !(message instanceof AssistantMessage) && !(message instanceof ToolResponseMessage);
+    }
+}
@@ -0,0 +1,89 @@
+package com.saq.chatMemory.advisor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Last-access time per conversation, scanned a batch at a time to find idle ones, and consulted
+ * to avoid evicting a conversation that was used after it was picked for eviction.
+ *
+ * <p>The scan keeps a weakly consistent iterator between calls, so each call costs at most
+ * {@code batchSize} steps no matter how many conversations exist, and the whole set is covered
+ * over successive calls without ever copying or locking it.
+ */
+final class ConversationActivity {
+
+    private final ConcurrentHashMap<String, Long> lastAccess = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+    // Only the sweeper advances the cursor, one batch at a time
+    private Iterator<Map.Entry<String, Long>> cursor;
+
+    ConversationActivity(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    void touch(String conversationId) {
+        lastAccess.put(conversationId, nanoClock.getAsLong());
+    }
+
+    /**
+     * Up to {@code batchSize} tracked conversations, continuing from where the previous call stopped,
+     * that have not been touched for at least {@code ttlNanos}.
+     */
+    synchronized List<LastAccess> nextIdle(long ttlNanos, int batchSize) {
+        long now = nanoClock.getAsLong();
+        List<LastAccess> idle = new ArrayList<>();
+        // Never scan more than the whole set, so one batch doesn't visit an entry twice
+        int limit = Math.min(batchSize, lastAccess.size());
+        for (int scanned = 0; scanned < limit; scanned++) {
+            if (cursor == null || !cursor.hasNext()) {
+                cursor = lastAccess.entrySet().iterator();
+                if (!cursor.hasNext()) {
+                    break;
+                }
+            }
+            Map.Entry<String, Long> entry = cursor.next();
+            if (now - entry.getValue() >= ttlNanos) {
+                idle.add(new LastAccess(entry.getKey(), entry.getValue()));
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Current last access of a tracked conversation, or null if it isn't tracked.
+     */
+    LastAccess lastAccess(String conversationId) {
+        Long nanos = lastAccess.get(conversationId);
+        return nanos != null ? new LastAccess(conversationId, nanos) : null;
+    }
+
+    /**
+     * Whether the conversation has not been touched since {@code conversation} was read.
+     */
+    boolean isUntouchedSince(LastAccess conversation) {
+        return lastAccess.getOrDefault(conversation.id(), Long.MIN_VALUE) == conversation.nanos();
+    }
+
+    /**
+     * Stop tracking the conversation, unless it was touched since {@code conversation} was read.
+     */
+    boolean untrack(LastAccess conversation) {
+        return lastAccess.remove(conversation.id(), conversation.nanos());
+    }
+
+    void remove(String conversationId) {
+        lastAccess.remove(conversationId);
+    }
+
+    int size() {
+        return lastAccess.size();
+    }
+
+    record LastAccess(String id, long nanos) {
+    }
+}
@@ -0,0 +1,16 @@
+package com.saq.chatMemory.advisor;
+
+/**
+ * Read-only snapshot of the running totals the advisor keeps for a conversation.
+ *
+ * @param messageCount Number of messages currently held in memory
+ * @param tokenCount   Estimated number of tokens across those messages
+ */
+public record ConversationStats(int messageCount, int tokenCount) {
+
+    public static final ConversationStats EMPTY = new ConversationStats(0, 0);
+
+    ConversationStats plus(int messages, int tokens) {
+        return new ConversationStats(messageCount + messages, tokenCount + tokens);
+    }
+}
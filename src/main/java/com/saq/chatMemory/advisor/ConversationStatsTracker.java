@@ -0,0 +1,59 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Running message and token totals per conversation, updated on every mutation the advisor
+ * performs so thresholds and reports can be read in O(1) instead of re-counting the history.
+ *
+ * <p>A conversation is seeded from chat memory the first time it is looked up. If an add pushes
+ * the count past {@code maxMessages} the underlying window may have evicted messages on its own,
+ * so the entry is dropped and re-seeded on the next lookup.
+ */
+final class ConversationStatsTracker {
+
+    private final ConcurrentHashMap<String, ConversationStats> totals = new ConcurrentHashMap<>();
+    private final int maxMessages;
+
+    ConversationStatsTracker(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    ConversationStats get(String conversationId, Supplier<List<Message>> loader,
+                          Function<List<Message>, Integer> tokenCounter) {
+        ConversationStats stats = totals.get(conversationId);
+        if (stats != null) {
+            return stats;
+        }
+        // Seed outside the map lock; tokenizing a long history shouldn't block other conversations
+        List<Message> messages = loader.get();
+        ConversationStats seeded = new ConversationStats(messages.size(), tokenCounter.apply(messages));
+        ConversationStats existing = totals.putIfAbsent(conversationId, seeded);
+        return existing != null ? existing : seeded;
+    }
+
+    void recordAdd(String conversationId, int tokens) {
+        ConversationStats updated = totals.computeIfPresent(conversationId, (id, stats) -> stats.plus(1, tokens));
+        if (updated != null && updated.messageCount() > maxMessages) {
+            totals.remove(conversationId);
+        }
+    }
+
+    void reset(String conversationId, int messageCount, int tokenCount) {
+        totals.put(conversationId, new ConversationStats(messageCount, tokenCount));
+    }
+
+    void remove(String conversationId) {
+        totals.remove(conversationId);
+    }
+
+    Map<String, ConversationStats> snapshot() {
+        return Map.copyOf(totals);
+    }
+}
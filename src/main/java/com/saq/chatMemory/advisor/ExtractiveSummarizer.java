@@ -0,0 +1,173 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-process summarizer that keeps the most informative sentences of a transcript instead of
+ * asking a model to rewrite it, so compaction costs milliseconds and works without the summarizer.
+ *
+ * <p>Every sentence is scored by TF-IDF, treating each sentence as a document, so words that recur
+ * throughout the range count for little and distinctive ones for a lot. Scores are weighted by
+ * position: the opening sentence of a message usually states its point, and later messages are
+ * more likely to hold decisions still in force. The best sentences are kept, in their original
+ * order, for as long as they fit the token budget; if not even the best one fits, it is truncated
+ * to the budget. Sentences of a previous summary compete alongside the transcript with a boost, so
+ * earlier context survives repeated compactions.
+ */
+final class ExtractiveSummarizer {
+
+    private static final double FIRST_SENTENCE_WEIGHT = 1.5;
+    private static final double PREVIOUS_SUMMARY_WEIGHT = 1.5;
+    private static final String ELLIPSIS = "…";
+
+    private final int tokenBudget;
+    private final TokenCountEstimator tokenCountEstimator;
+
+    ExtractiveSummarizer(int tokenBudget, TokenCountEstimator tokenCountEstimator) {
+        if (tokenBudget < 1) {
+            throw new IllegalArgumentException("tokenBudget must be at least 1");
+        }
+        this.tokenBudget = tokenBudget;
+        this.tokenCountEstimator = tokenCountEstimator;
+    }
+
+    /**
+     * @param transcript      One {@code "Role: text"} line per message, oldest first
+     * @param previousSummary Summary of the messages before the range, or null
+     */
+    String summarize(List<String> transcript, String previousSummary) {
+        List<Sentence> sentences = new ArrayList<>();
+        if (previousSummary != null) {
+            split(previousSummary, "", PREVIOUS_SUMMARY_WEIGHT, sentences);
+        }
+        for (int i = 0; i < transcript.size(); i++) {
+            String line = transcript.get(i);
+            int colon = line.indexOf(": ");
+            String role = colon > 0 ? line.substring(0, colon + 2) : "";
+            // Recency: from 0.75 for the oldest message to 1.25 for the newest
+            double recency = 0.75 + 0.5 * (transcript.size() == 1 ? 1 : (double) i / (transcript.size() - 1));
+            split(line.substring(role.length()), role, recency, sentences);
+        }
+        if (sentences.isEmpty()) {
+            return "";
+        }
+
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        for (Sentence sentence : sentences) {
+            for (String term : sentence.termCounts.keySet()) {
+                documentFrequency.merge(term, 1, Integer::sum);
+            }
+        }
+        for (Sentence sentence : sentences) {
+            double tfIdf = 0;
+            for (Map.Entry<String, Integer> term : sentence.termCounts.entrySet()) {
+                double idf = Math.log((1.0 + sentences.size()) / (1.0 + documentFrequency.get(term.getKey()))) + 1;
+                tfIdf += term.getValue() * idf;
+            }
+            // Square-root length normalization: long sentences carry more, but not proportionally more
+            sentence.score = sentence.termTotal == 0 ? 0 : sentence.weight * tfIdf / Math.sqrt(sentence.termTotal);
+        }
+
+        List<Sentence> ranked = new ArrayList<>(sentences);
+        ranked.sort(Comparator.comparingDouble((Sentence sentence) -> sentence.score).reversed());
+        int tokens = 0;
+        boolean anySelected = false;
+        for (Sentence sentence : ranked) {
+            int sentenceTokens = tokenCountEstimator.estimate(sentence.prefix + sentence.text);
+            if (tokens + sentenceTokens <= tokenBudget) {
+                sentence.selected = true;
+                anySelected = true;
+                tokens += sentenceTokens;
+            }
+        }
+        if (!anySelected) {
+            // Every sentence alone is over budget: an empty summary would drop the range entirely
+            return truncate(ranked.get(0).prefix + ranked.get(0).text);
+        }
+
+        StringBuilder summary = new StringBuilder();
+        for (Sentence sentence : sentences) {
+            if (sentence.selected) {
+                if (!summary.isEmpty()) {
+                    summary.append('\n');
+                }
+                summary.append(sentence.prefix).append(sentence.text);
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Longest prefix of {@code line} that fits the token budget with an ellipsis appended, cut at a
+     * word boundary where there is one.
+     */
+    private String truncate(String line) {
+        int low = 0;
+        int high = line.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (tokenCountEstimator.estimate(line.substring(0, mid) + ELLIPSIS) <= tokenBudget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (low == 0) {
+            return "";
+        }
+        int wordEnd = line.lastIndexOf(' ', low);
+        String kept = (wordEnd > 0 ? line.substring(0, wordEnd) : line.substring(0, low)).strip();
+        return kept + ELLIPSIS;
+    }
+
+    private static void split(String text, String prefix, double weight, List<Sentence> sentences) {
+        BreakIterator boundaries = BreakIterator.getSentenceInstance(Locale.ROOT);
+        boundaries.setText(text);
+        boolean first = true;
+        for (int start = boundaries.first(), end = boundaries.next(); end != BreakIterator.DONE;
+             start = end, end = boundaries.next()) {
+            String sentence = text.substring(start, end).strip();
+            if (sentence.isEmpty()) {
+                continue;
+            }
+            sentences.add(new Sentence(sentence, prefix, first ? weight * FIRST_SENTENCE_WEIGHT : weight));
+            first = false;
+        }
+    }
+
+    private static final class Sentence {
+
+        final String text;
+        final String prefix;
+        final double weight;
+        final Map<String, Integer> termCounts = new HashMap<>();
+        int termTotal;
+        double score;
+        boolean selected;
+
+        Sentence(String text, String prefix, double weight) {
+            this.text = text;
+            this.prefix = prefix;
+            this.weight = weight;
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+                    termCounts.merge(text.substring(start, i).toLowerCase(Locale.ROOT), 1, Integer::sum);
+                    termTotal++;
+                    start = -1;
+                }
+            }
+        }
+    }
+}
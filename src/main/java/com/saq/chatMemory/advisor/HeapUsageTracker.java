@@ -0,0 +1,49 @@
+package com.saq.chatMemory.advisor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate retained bytes of conversation history, per conversation and in total, as estimated
+ * by {@link com.saq.chatMemory.memory.MessageSizes}. Updated alongside every mutation the advisor
+ * performs, so the total can be read in O(1) on each request.
+ */
+final class HeapUsageTracker {
+
+    private final ConcurrentHashMap<String, Long> bytesByConversation = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    boolean isTracked(String conversationId) {
+        return bytesByConversation.containsKey(conversationId);
+    }
+
+    void add(String conversationId, long bytes) {
+        bytesByConversation.merge(conversationId, bytes, Long::sum);
+        totalBytes.addAndGet(bytes);
+    }
+
+    void set(String conversationId, long bytes) {
+        Long previous = bytesByConversation.put(conversationId, bytes);
+        totalBytes.addAndGet(bytes - (previous != null ? previous : 0));
+    }
+
+    void remove(String conversationId) {
+        Long previous = bytesByConversation.remove(conversationId);
+        if (previous != null) {
+            totalBytes.addAndGet(-previous);
+        }
+    }
+
+    long bytes(String conversationId) {
+        return bytesByConversation.getOrDefault(conversationId, 0L);
+    }
+
+    long totalBytes() {
+        return totalBytes.get();
+    }
+
+    Map<String, Long> snapshot() {
+        return Map.copyOf(bytesByConversation);
+    }
+}
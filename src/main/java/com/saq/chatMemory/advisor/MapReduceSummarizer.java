@@ -0,0 +1,154 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Summarizes a transcript too large for one summarizer prompt by splitting it into token-bounded
+ * chunks, summarizing the chunks concurrently (map), then merging the partial summaries in one
+ * final call (reduce).
+ *
+ * <p>Chunks are summarized on at most {@code concurrency} virtual threads per compaction, so
+ * wall-clock time grows with chunks divided by concurrency rather than with the size of the range.
+ * This only bounds the fan-out of one compaction: admission of the summarizer calls themselves,
+ * across compactions and advisors, is left to the {@link SummarizerScheduler} behind the summarizer
+ * function, so cache hits never queue behind calls waiting for the model. If the partial summaries
+ * themselves exceed the chunk budget, they are merged in further rounds until they fit one reduce prompt.
+ */
+final class MapReduceSummarizer {
+
+    private static final String MAP_PROMPT =
+            "Summarize the following part of a longer conversation concisely, preserving key information and context:\n\n";
+    private static final String COMBINE_PROMPT =
+            "The following are summaries of consecutive parts of one conversation, in order. "
+                    + "Merge them into a single concise summary, preserving key information and context:\n\n";
+    private static final String UPDATE_PROMPT =
+            "Update the running summary of a conversation with the summaries of the new messages below, which are "
+                    + "in order. Keep every key fact, decision and piece of context from the existing summary unless the "
+                    + "new messages supersede it, and stay concise.\n\nExisting summary:\n";
+
+    private final int chunkTokens;
+    private final int concurrency;
+    private final TokenCountEstimator tokenCountEstimator;
+
+    /**
+     * @param chunkTokens         Maximum tokens of transcript per chunk
+     * @param concurrency         Maximum chunks of one compaction summarized at once
+     * @param tokenCountEstimator Estimator for transcript lines and partial summaries, shared with the advisor
+     */
+    MapReduceSummarizer(int chunkTokens, int concurrency, TokenCountEstimator tokenCountEstimator) {
+        if (chunkTokens < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("chunkTokens and concurrency must be at least 1");
+        }
+        this.chunkTokens = chunkTokens;
+        this.concurrency = concurrency;
+        this.tokenCountEstimator = tokenCountEstimator;
+    }
+
+    /**
+     * Group consecutive lines into chunks of at most {@code chunkTokens} each. Lines are never split,
+     * so a line longer than the budget becomes a chunk of its own.
+     */
+    List<String> chunk(List<String> lines) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        int tokens = 0;
+        for (String line : lines) {
+            int lineTokens = tokenCountEstimator.estimate(line);
+            if (!chunk.isEmpty() && tokens + lineTokens > chunkTokens) {
+                chunks.add(chunk.toString());
+                chunk.setLength(0);
+                tokens = 0;
+            }
+            if (!chunk.isEmpty()) {
+                chunk.append('\n');
+            }
+            chunk.append(line);
+            tokens += lineTokens;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Summarize the chunks and merge the results, folding in {@code previousSummary} when there is one.
+     * @param summarizer Sends one prompt to the summarizer model and returns its reply
+     */
+    Result summarize(List<String> chunks, String previousSummary, Function<String, String> summarizer) {
+        AtomicInteger inputTokens = new AtomicInteger();
+        AtomicInteger outputTokens = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+        Function<String, String> call = prompt -> {
+            String summary = summarizer.apply(prompt);
+            inputTokens.addAndGet(tokenCountEstimator.estimate(prompt));
+            outputTokens.addAndGet(tokenCountEstimator.estimate(summary));
+            calls.incrementAndGet();
+            return summary;
+        };
+
+        List<String> partials = map(chunks, MAP_PROMPT, call);
+        while (partials.size() > 1) {
+            List<String> groups = chunk(partials);
+            if (groups.size() == 1 || groups.size() == partials.size()) {
+                // Fits one reduce prompt, or every partial is too large to group any further
+                break;
+            }
+            partials = map(groups, COMBINE_PROMPT, call);
+        }
+
+        String joined = String.join("\n\n", partials);
+        String summary;
+        if (previousSummary != null) {
+            summary = call.apply(UPDATE_PROMPT + previousSummary + "\n\nNew messages, summarized:\n" + joined);
+        } else if (partials.size() > 1) {
+            summary = call.apply(COMBINE_PROMPT + joined);
+        } else {
+            summary = joined;
+        }
+        return new Result(summary, inputTokens.get(), outputTokens.get(), calls.get());
+    }
+
+    private List<String> map(List<String> chunks, String prompt, Function<String, String> call) {
+        try (ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(concurrency, chunks.size()), Thread.ofVirtual().name("map-reduce-", 0).factory())) {
+            List<Future<String>> futures = new ArrayList<>(chunks.size());
+            for (String chunk : chunks) {
+                futures.add(executor.submit(() -> call.apply(prompt + chunk)));
+            }
+            List<String> summaries = new ArrayList<>(chunks.size());
+            try {
+                for (Future<String> future : futures) {
+                    summaries.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while summarizing chunks", e);
+            } catch (ExecutionException e) {
+                // One failed chunk fails the compaction; don't wait for the others
+                futures.forEach(future -> future.cancel(true));
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException("Chunk summarization failed", e.getCause());
+            }
+            return summaries;
+        }
+    }
+
+    /**
+     * The merged summary, with summarizer token usage and call count summed over every map and reduce call.
+     */
+    record Result(String summary, int inputTokens, int outputTokens, int calls) {
+    }
+}
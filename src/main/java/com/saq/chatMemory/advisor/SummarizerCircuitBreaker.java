@@ -0,0 +1,79 @@
+package com.saq.chatMemory.advisor;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker around the summarizer model. After {@code failureThreshold} consecutive failed
+ * or timed-out calls it opens, and calls are refused outright for {@code openNanos}, so compaction
+ * falls back immediately instead of waiting on a model that is down. Then a single trial call is
+ * let through (half-open): success closes the breaker, failure opens it again.
+ */
+final class SummarizerCircuitBreaker {
+
+    enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    SummarizerCircuitBreaker(int failureThreshold, long openNanos, LongSupplier nanoClock) {
+        if (failureThreshold < 1 || openNanos <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1 and the open duration positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return Whether a summarizer call may go ahead; every permitted call must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                // Half-open: only the one trial call, until it reports back
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoClock.getAsLong();
+            trialInFlight = false;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,238 @@
+package com.saq.chatMemory.advisor;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control for summarizer calls, meant to be shared by every advisor that talks to the
+ * same summarizer provider, so many conversations compacting at once don't turn into a burst of
+ * parallel calls that trips the provider's rate limits.
+ *
+ * <p>A call goes ahead once three conditions hold: fewer than {@code maxConcurrency} calls are in
+ * flight, and two token buckets, refilled continuously at {@code requestsPerMinute} and
+ * {@code tokensPerMinute}, hold one request and the call's estimated prompt tokens. Each bucket
+ * holds at most one minute's worth, so an idle scheduler admits at most that burst. Reply tokens
+ * are only known afterwards and are charged through {@link #recordTokens(int)}, which may leave
+ * the token bucket in debt until it refills.
+ *
+ * <p>Waiting calls are admitted strictly in priority order, first come first served within a
+ * priority: compactions a user is waiting on go ahead of background ones, and a call that doesn't
+ * fit the buckets yet holds back everything queued behind it rather than being overtaken by
+ * smaller calls. Under sustained interactive load, background compactions wait.
+ *
+ * <p>Since one scheduler serves many advisors, its gauges are registered once by whoever creates
+ * it, through {@link #bindTo(MeterRegistry)}, rather than by each advisor using it.
+ */
+public class SummarizerScheduler {
+
+    public enum Priority {
+        /**
+         * Compactions a request is blocked on
+         */
+        INTERACTIVE,
+
+        /**
+         * Compactions off the request path: async compaction, idle sweeps and heap budget enforcement
+         */
+        BACKGROUND
+    }
+
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final int maxConcurrency;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(
+            Comparator.comparing(Ticket::priority).thenComparingLong(Ticket::sequence));
+    private long nextSequence;
+    private int active;
+
+    /**
+     * @param maxConcurrency    Most summarizer calls in flight at once, 0 for no limit
+     * @param requestsPerMinute Summarizer calls admitted per minute, 0 for no limit
+     * @param tokensPerMinute   Prompt and reply tokens admitted per minute, 0 for no limit
+     */
+    public SummarizerScheduler(int maxConcurrency, int requestsPerMinute, int tokensPerMinute) {
+        this(maxConcurrency, requestsPerMinute, tokensPerMinute, System::nanoTime);
+    }
+
+    SummarizerScheduler(int maxConcurrency, int requestsPerMinute, int tokensPerMinute, LongSupplier nanoClock) {
+        if (maxConcurrency < 0 || requestsPerMinute < 0 || tokensPerMinute < 0) {
+            throw new IllegalArgumentException("maxConcurrency, requestsPerMinute and tokensPerMinute must not be negative");
+        }
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+        this.nanoClock = nanoClock;
+        long now = nanoClock.getAsLong();
+        this.requestBucket = requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute, now) : null;
+        this.tokenBucket = tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute, now) : null;
+    }
+
+    /**
+     * Wait until a summarizer call may go ahead. The returned permit must be closed once the call
+     * has finished, successfully or not.
+     * @param promptTokens Estimated tokens sent with the call; more than a minute's worth waits for a full bucket
+     * @throws InterruptedException If interrupted while queued; the call was not admitted
+     */
+    public Permit acquire(Priority priority, int promptTokens) throws InterruptedException {
+        lock.lock();
+        try {
+            Ticket ticket = new Ticket(priority, nextSequence++,
+                    tokenBucket != null ? Math.min(promptTokens, tokenBucket.capacity) : 0);
+            queue.add(ticket);
+            try {
+                while (true) {
+                    if (queue.peek() != ticket || active >= maxConcurrency) {
+                        changed.await();
+                        continue;
+                    }
+                    long now = nanoClock.getAsLong();
+                    long waitNanos = Math.max(
+                            requestBucket != null ? requestBucket.nanosUntil(1, now) : 0,
+                            tokenBucket != null ? tokenBucket.nanosUntil(ticket.tokens(), now) : 0);
+                    if (waitNanos > 0) {
+                        changed.awaitNanos(waitNanos);
+                        continue;
+                    }
+                    if (requestBucket != null) {
+                        requestBucket.take(1);
+                    }
+                    if (tokenBucket != null) {
+                        tokenBucket.take(ticket.tokens());
+                    }
+                    queue.poll();
+                    active++;
+                    // The next ticket in line may be admissible too
+                    changed.signalAll();
+                    return new Permit();
+                }
+            } catch (InterruptedException e) {
+                queue.remove(ticket);
+                changed.signalAll();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Charge tokens spent beyond the prompt estimate, typically the reply, against the token bucket.
+     */
+    public void recordTokens(int tokens) {
+        if (tokenBucket == null || tokens <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            tokenBucket.take(tokens);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Register the {@code scheduler.queued} and {@code scheduler.active} gauges. Call once per scheduler.
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(CompactionMetrics.PREFIX + ".scheduler.queued", this, SummarizerScheduler::queued)
+                .description("Summarizer calls waiting for admission by the summarizer scheduler")
+                .register(registry);
+        Gauge.builder(CompactionMetrics.PREFIX + ".scheduler.active", this, SummarizerScheduler::active)
+                .description("Summarizer calls admitted by the summarizer scheduler and still running")
+                .register(registry);
+    }
+
+    /**
+     * @return Calls waiting to be admitted
+     */
+    public int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Admitted calls whose permit is not closed yet
+     */
+    public int active() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            active--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One admitted summarizer call; closing it frees its concurrency slot. Closing twice has no effect.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private boolean closed;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release();
+            }
+        }
+    }
+
+    private record Ticket(Priority priority, long sequence, int tokens) {
+    }
+
+    /**
+     * Continuously refilled bucket holding at most one minute's allowance. Guarded by the scheduler lock.
+     */
+    private static final class TokenBucket {
+
+        final int capacity;
+        private final double perNano;
+        private double available;
+        private long refilledAt;
+
+        TokenBucket(int perMinute, long now) {
+            this.capacity = perMinute;
+            this.perNano = (double) perMinute / NANOS_PER_MINUTE;
+            this.available = perMinute;
+            this.refilledAt = now;
+        }
+
+        long nanosUntil(int amount, long now) {
+            available = Math.min(capacity, available + (now - refilledAt) * perNano);
+            refilledAt = now;
+            return available >= amount ? 0 : (long) Math.ceil((amount - available) / perNano);
+        }
+
+        void take(int amount) {
+            available -= amount;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.saq.chatMemory.advisor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of summarizer replies, so a message range that was summarized before
+ * (a retried compaction, a repeated trigger, conversations starting from the same script) doesn't
+ * go back to the model.
+ *
+ * <p>Entries are keyed by a SHA-256 of the summarizer model, the prompt version and the rendered
+ * prompt, which includes the transcript and any folded-in previous summary. Recent entries live in
+ * a bounded LRU map; with a directory, every entry is also written there as one file and read back
+ * on a memory miss, so summaries survive restarts and can be shared by instances. The disk tier is
+ * not bounded: clear the directory when it grows too large or the prompts change.
+ */
+public class SummaryCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SummaryCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Map<String, String> entries;
+    private final Path directory;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SummaryCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param directory Where the on-disk tier keeps its files, or null to keep entries in memory only
+     */
+    public SummaryCache(int maxEntries, Path directory) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.directory = directory;
+    }
+
+    /**
+     * Cache key for a summarizer prompt. Bump {@code promptVersion} whenever the prompt wording
+     * changes meaning, so summaries produced by the old wording are no longer served.
+     */
+    public static String key(String model, String promptVersion, String prompt) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        // NUL separators keep ("ab", "c") and ("a", "bc") apart
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(promptVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return The cached summary, or null on a miss
+     */
+    public String get(String key) {
+        synchronized (entries) {
+            String summary = entries.get(key);
+            if (summary != null) {
+                memoryHits.incrementAndGet();
+                return summary;
+            }
+        }
+        String summary = directory != null ? read(key) : null;
+        if (summary == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        diskHits.incrementAndGet();
+        synchronized (entries) {
+            entries.put(key, summary);
+        }
+        return summary;
+    }
+
+    public void put(String key, String summary) {
+        synchronized (entries) {
+            entries.put(key, summary);
+        }
+        if (directory != null) {
+            write(key, summary);
+        }
+    }
+
+    public long memoryHits() {
+        return memoryHits.get();
+    }
+
+    public long diskHits() {
+        return diskHits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Fraction of lookups served from either tier, 0 before the first lookup
+     */
+    public double hitRatio() {
+        long hits = memoryHits.get() + diskHits.get();
+        long lookups = hits + misses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return Number of entries in the memory tier
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private String read(String key) {
+        try {
+            return Files.readString(file(key), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // The cache is an optimization: a broken disk tier means summarizing again, not failing the compaction
+            logger.warn("Failed to read cached summary {}", key, e);
+            return null;
+        }
+    }
+
+    private void write(String key, String summary) {
+        Path file = file(key);
+        try {
+            Files.createDirectories(file.getParent());
+            // Write aside and move into place, so readers never see a partial summary
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.writeString(tmp, summary, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to write cached summary {}", key, e);
+        }
+    }
+
+    private Path file(String key) {
+        // Fan out by the first byte of the hash so no single directory holds every entry
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".txt");
+    }
+}
@@ -2,17 +2,30 @@ package com.saq.chatMemory.config;
 
 
 import com.saq.chatMemory.advisor.CompactingChatMemoryAdvisor;
+import com.saq.chatMemory.advisor.SummarizerScheduler;
+import com.saq.chatMemory.advisor.SummaryCache;
+import com.saq.chatMemory.memory.CompactableMessageWindowChatMemory;
+import com.saq.chatMemory.memory.SegmentFileChatMemoryRepository;
+import com.saq.chatMemory.memory.TieredChatMemoryRepository;
+import com.saq.chatMemory.memory.WriteAheadLogChatMemoryRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.google.genai.GoogleGenAiChatModel;
 //import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.nio.file.Path;
+
 @Configuration
 @EnableConfigurationProperties(CompactingMemoryProperties.class)
 public class ChatMemoryConfiguration {
@@ -31,14 +44,41 @@ public class ChatMemoryConfiguration {
     /**
      * Separate chat memory instance for the compacting advisor.
      * This keeps the two conversation histories independent for comparison.
+     * Same window behavior as MessageWindowChatMemory, but compaction swaps the summary in with a single write.
      */
     @Bean
-    public ChatMemory compactingChatMemory() {
-        return MessageWindowChatMemory.builder()
-                .maxMessages(20)
+    public ChatMemory compactingChatMemory(CompactingMemoryProperties properties,
+                                           ChatMemoryRepository compactingChatMemoryRepository) {
+        return CompactableMessageWindowChatMemory.builder()
+                .chatMemoryRepository(compactingChatMemoryRepository)
+                .maxMessages(properties.maxMessages())
                 .build();
     }
 
+    /**
+     * Storage behind the compacting chat memory, selected with compact.memory.repository.
+     * The segment-file repository keeps history off-heap and across restarts; it is closed with the context.
+     * The tiered repository bounds heap use by spilling idle conversations to disk.
+     * The write-ahead-log repository keeps history on the heap and logs every change, compactions as one record.
+     */
+    @Bean
+    public ChatMemoryRepository compactingChatMemoryRepository(CompactingMemoryProperties properties) {
+        return switch (properties.repository()) {
+            case IN_MEMORY -> new InMemoryChatMemoryRepository();
+            case SEGMENT_FILE -> new SegmentFileChatMemoryRepository(
+                    Path.of(properties.repositoryDirectory()),
+                    Math.toIntExact(properties.segmentSize().toBytes()));
+            case TIERED -> new TieredChatMemoryRepository(
+                    Path.of(properties.repositoryDirectory()),
+                    properties.hotConversations(),
+                    properties.hotBytes().toBytes());
+            case WRITE_AHEAD_LOG -> new WriteAheadLogChatMemoryRepository(
+                    Path.of(properties.repositoryDirectory()),
+                    properties.snapshotInterval(),
+                    properties.syncWrites());
+        };
+    }
+
     /**
      * Primary chat model (OpenAI GPT-5) for user-facing chat responses.
      * Marked as @Primary to resolve ambiguity when multiple ChatModel beans exist.
@@ -60,6 +100,21 @@ public class ChatMemoryConfiguration {
         return googleGenAiChatModel;
     }
 
+    /**
+     * Admission control for summarizer calls, shared by every compacting advisor so that together
+     * they stay within the summarizer provider's concurrency and rate limits.
+     * Its gauges are bound here, once, since every advisor shares it.
+     */
+    @Bean
+    public SummarizerScheduler summarizerScheduler(CompactingMemoryProperties properties,
+                                                   ObjectProvider<MeterRegistry> meterRegistry) {
+        SummarizerScheduler scheduler = new SummarizerScheduler(properties.summarizerConcurrency(),
+                properties.summarizerRequestsPerMinute(),
+                properties.summarizerTokensPerMinute());
+        scheduler.bindTo(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        return scheduler;
+    }
+
     /**
      * Custom compacting advisor that automatically summarizes old messages
      * when the conversation history approaches the limit.
@@ -73,13 +128,51 @@ public class ChatMemoryConfiguration {
     public CompactingChatMemoryAdvisor compactingChatMemoryAdvisor(
             ChatMemory compactingChatMemory,
             @Qualifier("geminiChatModel") ChatModel geminiChatModel,
-            CompactingMemoryProperties properties) {
-        return new CompactingChatMemoryAdvisor(
-                compactingChatMemory,
-                geminiChatModel,  // Use Gemini for cost-effective summarization
-                properties.maxMessages(),
-                properties.compactThreshold(),
-                properties.messagesToCompact()
-        );
+            CompactingMemoryProperties properties,
+            SummarizerScheduler summarizerScheduler,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        return CompactingChatMemoryAdvisor.builder(
+                        compactingChatMemory,
+                        geminiChatModel)  // Use Gemini for cost-effective summarization
+                .maxMessages(properties.maxMessages())
+                .compactThreshold(properties.compactThreshold())
+                .messagesToCompact(properties.messagesToCompact())
+                .maxTokens(properties.maxTokens())
+                .compactThresholdTokens(properties.compactThresholdTokens())
+                .tokenCountCacheSize(properties.tokenCountCacheSize())
+                .compactionTargetTokens(properties.compactionTargetTokens())
+                .recentTailTokens(properties.recentTailTokens())
+                .incrementalSummary(properties.incrementalSummary())
+                .compactionStrategy(properties.compactionStrategy())
+                .extractiveTokenBudget(properties.extractiveTokenBudget())
+                .summarizerTimeout(properties.summarizerTimeout())
+                .breakerFailureThreshold(properties.breakerFailureThreshold())
+                .breakerOpenDuration(properties.breakerOpenDuration())
+                .summarizerFallback(properties.summarizerFallback())
+                .mapReduceChunkTokens(properties.mapReduceChunkTokens())
+                .mapReduceConcurrency(properties.mapReduceConcurrency())
+                .summaryCache(summaryCache(properties))
+                .summarizerScheduler(summarizerScheduler)
+                .asyncCompaction(properties.asyncCompaction())
+                .asyncConcurrency(properties.asyncConcurrency())
+                .asyncQueueCapacity(properties.asyncQueueCapacity())
+                .idleTtl(properties.idleTtl())
+                .idleEviction(properties.idleEviction())
+                .sweepInterval(properties.sweepInterval())
+                .sweepBatchSize(properties.sweepBatchSize())
+                .maxHeapBytes(properties.maxHeap().toBytes())
+                .heapEviction(properties.heapEviction())
+                .heapEvictionOrder(properties.heapEvictionOrder())
+                .meterRegistry(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry))
+                .name("compactingChatMemoryAdvisor")
+                .build();
+    }
+
+    private static SummaryCache summaryCache(CompactingMemoryProperties properties) {
+        if (properties.summaryCacheSize() == 0) {
+            return null;
+        }
+        return new SummaryCache(properties.summaryCacheSize(),
+                properties.summaryCacheDirectory().isBlank() ? null : Path.of(properties.summaryCacheDirectory()));
     }
 }
\ No newline at end of file
@@ -1,6 +1,11 @@
 package com.saq.chatMemory.config;
 
+import com.saq.chatMemory.advisor.CompactingChatMemoryAdvisor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 /**
  * Configuration properties for the compacting chat memory advisor.
@@ -21,6 +26,220 @@ public record CompactingMemoryProperties(
         /**
          * Number of oldest messages to compact/summarize when threshold is reached
          */
-        int messagesToCompact
+        int messagesToCompact,
+
+        /**
+         * Hard cap on the estimated tokens retained in memory (0 disables the token limits)
+         */
+        @DefaultValue("0") int maxTokens,
+
+        /**
+         * Token count at which to trigger automatic compaction, whichever of this and
+         * compactThreshold is reached first (0 disables)
+         */
+        @DefaultValue("0") int compactThresholdTokens,
+
+        /**
+         * Message texts whose token counts are cached, so the history isn't re-tokenized on every request
+         */
+        @DefaultValue("10000") int tokenCountCacheSize,
+
+        /**
+         * Tokens the history should fit after each compaction; the number of messages compacted is
+         * chosen to reach it, on turn boundaries (0 compacts messagesToCompact messages)
+         */
+        @DefaultValue("0") int compactionTargetTokens,
+
+        /**
+         * Tokens of the most recent messages a planned compaction always keeps verbatim
+         */
+        @DefaultValue("0") int recentTailTokens,
+
+        /**
+         * Fold the previous summary and the newly evicted messages into a rolling summary
+         * instead of discarding earlier summaries
+         */
+        @DefaultValue("false") boolean incrementalSummary,
+
+        /**
+         * How compacted messages are condensed: llm asks the summarizer model, extractive keeps
+         * their highest-scoring sentences in-process without a model call
+         */
+        @DefaultValue("llm") CompactingChatMemoryAdvisor.CompactionStrategy compactionStrategy,
+
+        /**
+         * Maximum tokens of sentences kept per summary by the extractive strategy
+         */
+        @DefaultValue("500") int extractiveTokenBudget,
+
+        /**
+         * Longest a single summarizer call may take (0 waits indefinitely)
+         */
+        @DefaultValue("0s") Duration summarizerTimeout,
+
+        /**
+         * Consecutive failed or timed-out summarizer calls that open the circuit breaker (0 disables it)
+         */
+        @DefaultValue("5") int breakerFailureThreshold,
+
+        /**
+         * How long an open circuit breaker refuses summarizer calls before letting a trial call through
+         */
+        @DefaultValue("30s") Duration breakerOpenDuration,
+
+        /**
+         * What a compaction does when the summarizer fails, times out or its breaker is open:
+         * none fails it, truncate drops the range, extractive compacts in-process instead
+         */
+        @DefaultValue("none") CompactingChatMemoryAdvisor.SummarizerFallback summarizerFallback,
+
+        /**
+         * Summarize compaction ranges larger than this many tokens as parallel chunks of at most this
+         * size merged by a final call (0 always sends the whole range in one prompt)
+         */
+        @DefaultValue("0") int mapReduceChunkTokens,
+
+        /**
+         * Maximum number of chunks of one compaction summarized at once; summarizerConcurrency bounds
+         * summarizer calls across compactions
+         */
+        @DefaultValue("4") int mapReduceConcurrency,
+
+        /**
+         * Summaries kept in the in-memory summary cache (0 disables the cache)
+         */
+        @DefaultValue("0") int summaryCacheSize,
+
+        /**
+         * Directory for the on-disk summary cache tier (empty keeps cached summaries in memory only)
+         */
+        @DefaultValue("") String summaryCacheDirectory,
+
+        /**
+         * Maximum number of summarizer calls in flight at once, across every advisor (0 for no limit)
+         */
+        @DefaultValue("0") int summarizerConcurrency,
+
+        /**
+         * Summarizer calls admitted per minute, across every advisor (0 for no limit)
+         */
+        @DefaultValue("0") int summarizerRequestsPerMinute,
+
+        /**
+         * Summarizer prompt and reply tokens admitted per minute, across every advisor (0 for no limit)
+         */
+        @DefaultValue("0") int summarizerTokensPerMinute,
+
+        /**
+         * Run triggered compactions on a background executor instead of inside the request
+         */
+        @DefaultValue("false") boolean asyncCompaction,
+
+        /**
+         * Maximum number of background compactions running at once
+         */
+        @DefaultValue("4") int asyncConcurrency,
+
+        /**
+         * Maximum number of background compactions waiting to run
+         */
+        @DefaultValue("1000") int asyncQueueCapacity,
+
+        /**
+         * Where the compacting chat memory keeps conversation history
+         */
+        @DefaultValue("in-memory") RepositoryType repository,
+
+        /**
+         * Directory for the segment files when repository is segment-file, for the spilled
+         * cold tier when repository is tiered, or for the log and snapshots when repository is write-ahead-log
+         */
+        @DefaultValue("chat-memory") String repositoryDirectory,
+
+        /**
+         * Size of each preallocated segment file when repository is segment-file
+         */
+        @DefaultValue("64MB") DataSize segmentSize,
+
+        /**
+         * Maximum number of conversations kept on the heap when repository is tiered
+         */
+        @DefaultValue("1000") int hotConversations,
+
+        /**
+         * Approximate heap budget for the hot tier when repository is tiered
+         */
+        @DefaultValue("64MB") DataSize hotBytes,
+
+        /**
+         * Number of log records after which the state is snapshotted and the log restarted
+         * when repository is write-ahead-log
+         */
+        @DefaultValue("10000") int snapshotInterval,
+
+        /**
+         * Force every log record to disk before the write returns when repository is write-ahead-log,
+         * so history also survives an OS crash or power loss, not just a process crash
+         */
+        @DefaultValue("false") boolean syncWrites,
+
+        /**
+         * Evict conversations not used for this long (0 disables idle eviction). Only conversations used
+         * since startup are tracked; ones recovered from disk are swept once they are used again
+         */
+        @DefaultValue("0s") Duration idleTtl,
+
+        /**
+         * Whether an idle conversation is dropped or first compacted into a single summary
+         */
+        @DefaultValue("summarize") CompactingChatMemoryAdvisor.EvictionAction idleEviction,
+
+        /**
+         * How often the idle sweeper runs
+         */
+        @DefaultValue("1m") Duration sweepInterval,
+
+        /**
+         * Maximum number of conversations the idle sweeper inspects per run
+         */
+        @DefaultValue("1000") int sweepBatchSize,
+
+        /**
+         * Approximate heap all conversation history may retain, message text plus metadata (0 disables the budget).
+         * Only conversations used since startup are counted; ones recovered from disk count once they are used again
+         */
+        @DefaultValue("0B") DataSize maxHeap,
+
+        /**
+         * Whether conversations evicted to meet the heap budget are dropped or first compacted into a single summary
+         */
+        @DefaultValue("summarize") CompactingChatMemoryAdvisor.EvictionAction heapEviction,
+
+        /**
+         * Which conversations are evicted first when the heap budget is exceeded: largest or coldest
+         */
+        @DefaultValue("largest") CompactingChatMemoryAdvisor.HeapEvictionOrder heapEvictionOrder
 ) {
+
+    public enum RepositoryType {
+        /**
+         * Conversation history kept on the heap and lost on restart
+         */
+        IN_MEMORY,
+
+        /**
+         * Append-only, memory-mapped segment files on local disk
+         */
+        SEGMENT_FILE,
+
+        /**
+         * Recently used conversations on the heap, idle ones compressed and spilled to local disk
+         */
+        TIERED,
+
+        /**
+         * History on the heap, made crash-safe by a write-ahead log with periodic snapshots
+         */
+        WRITE_AHEAD_LOG
+    }
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * {@link ChatMemory} that can swap the oldest part of a conversation for a summary in a single write.
+ *
+ * <p>Without this, compaction has to clear the conversation and re-add every remaining message,
+ * which costs a read-modify-write per message and briefly exposes an empty history to readers.
+ */
+public interface CompactableChatMemory extends ChatMemory {
+
+    /**
+     * Atomically replace the first {@code prefixLength} messages of a conversation with {@code summary}.
+     * @param conversationId The conversation ID to rewrite
+     * @param prefixLength Number of oldest messages to drop
+     * @param summary Message to put in their place
+     */
+    default void replacePrefix(String conversationId, int prefixLength, Message summary) {
+        replacePrefix(conversationId, prefixLength, List.of(summary));
+    }
+
+    /**
+     * Atomically replace the first {@code prefixLength} messages of a conversation with {@code replacement},
+     * typically a summary plus the pinned messages that compaction keeps verbatim.
+     * @param conversationId The conversation ID to rewrite
+     * @param prefixLength Number of oldest messages to drop
+     * @param replacement Messages to put in their place, in order
+     */
+    void replacePrefix(String conversationId, int prefixLength, List<Message> replacement);
+}
@@ -0,0 +1,35 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * {@link ChatMemoryRepository} that records a compaction as one operation instead of a full rewrite.
+ *
+ * <p>{@link CompactableMessageWindowChatMemory#replacePrefix} hands compactions to repositories
+ * implementing this, so a durable store can log "summary plus truncation point" rather than
+ * every remaining message.
+ */
+public interface CompactableChatMemoryRepository extends ChatMemoryRepository {
+
+    /**
+     * Atomically replace the first {@code prefixLength} stored messages of a conversation with {@code summary}.
+     * @param conversationId The conversation ID to rewrite
+     * @param prefixLength Number of oldest messages to drop
+     * @param summary Message to put in their place
+     */
+    default void replacePrefix(String conversationId, int prefixLength, Message summary) {
+        replacePrefix(conversationId, prefixLength, List.of(summary));
+    }
+
+    /**
+     * Atomically replace the first {@code prefixLength} stored messages of a conversation with {@code replacement},
+     * typically a summary plus the pinned messages that compaction keeps verbatim.
+     * @param conversationId The conversation ID to rewrite
+     * @param prefixLength Number of oldest messages to drop
+     * @param replacement Messages to put in their place, in order
+     */
+    void replacePrefix(String conversationId, int prefixLength, List<Message> replacement);
+}
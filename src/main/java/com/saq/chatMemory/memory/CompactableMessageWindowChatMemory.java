@@ -0,0 +1,167 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Message-window chat memory with the same retention rules as
+ * {@link org.springframework.ai.chat.memory.MessageWindowChatMemory}, plus
+ * {@link #replacePrefix(String, int, List)} implemented as one {@link ChatMemoryRepository#saveAll} call,
+ * or as one {@link CompactableChatMemoryRepository#replacePrefix} call when the repository supports it.
+ *
+ * <p>Retention: at most {@code maxMessages} are kept, the oldest non-system messages are evicted
+ * first, and adding a new system message replaces any existing ones.
+ *
+ * <p>Unlike {@code MessageWindowChatMemory}, every read-modify-write of a conversation runs under
+ * a striped lock keyed by conversation ID, so concurrent appends to one conversation are applied
+ * in order and none are lost, while different conversations proceed in parallel. Reads go
+ * straight to the repository and see the last completed write.
+ */
+public class CompactableMessageWindowChatMemory implements CompactableChatMemory {
+
+    private static final int DEFAULT_MAX_MESSAGES = 20;
+
+    private final ChatMemoryRepository chatMemoryRepository;
+    private final int maxMessages;
+    private final StripedLocks locks;
+
+    private CompactableMessageWindowChatMemory(ChatMemoryRepository chatMemoryRepository, int maxMessages,
+                                               int lockStripes) {
+        if (maxMessages < 1) {
+            throw new IllegalArgumentException("maxMessages must be at least 1");
+        }
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.maxMessages = maxMessages;
+        this.locks = new StripedLocks(lockStripes);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Lock lock = locks.lockFor(conversationId);
+        lock.lock();
+        try {
+            List<Message> memoryMessages = chatMemoryRepository.findByConversationId(conversationId);
+            chatMemoryRepository.saveAll(conversationId, process(memoryMessages, messages));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        return chatMemoryRepository.findByConversationId(conversationId);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Lock lock = locks.lockFor(conversationId);
+        lock.lock();
+        try {
+            chatMemoryRepository.deleteByConversationId(conversationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replacePrefix(String conversationId, int prefixLength, List<Message> replacement) {
+        Lock lock = locks.lockFor(conversationId);
+        lock.lock();
+        try {
+            List<Message> memoryMessages = chatMemoryRepository.findByConversationId(conversationId);
+            if (prefixLength < 0 || prefixLength > memoryMessages.size()) {
+                throw new IllegalArgumentException(String.format(
+                        "prefixLength (%d) must be between 0 and the conversation size (%d)",
+                        prefixLength, memoryMessages.size()));
+            }
+            if (chatMemoryRepository instanceof CompactableChatMemoryRepository compactableRepository) {
+                compactableRepository.replacePrefix(conversationId, prefixLength, replacement);
+                return;
+            }
+            List<Message> compacted = new ArrayList<>(memoryMessages.size() - prefixLength + replacement.size());
+            compacted.addAll(replacement);
+            compacted.addAll(memoryMessages.subList(prefixLength, memoryMessages.size()));
+            chatMemoryRepository.saveAll(conversationId, compacted);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Message> process(List<Message> memoryMessages, List<Message> newMessages) {
+        Set<Message> memoryMessagesSet = new HashSet<>(memoryMessages);
+        boolean hasNewSystemMessage = newMessages.stream()
+                .filter(SystemMessage.class::isInstance)
+                .anyMatch(message -> !memoryMessagesSet.contains(message));
+
+        List<Message> processedMessages = new ArrayList<>(memoryMessages.size() + newMessages.size());
+        memoryMessages.stream()
+                .filter(message -> !(hasNewSystemMessage && message instanceof SystemMessage))
+                .forEach(processedMessages::add);
+        processedMessages.addAll(newMessages);
+
+        if (processedMessages.size() <= maxMessages) {
+            return processedMessages;
+        }
+
+        // Evict the oldest non-system messages first
+        int messagesToRemove = processedMessages.size() - maxMessages;
+        List<Message> trimmedMessages = new ArrayList<>(maxMessages);
+        int removed = 0;
+        for (Message message : processedMessages) {
+            if (message instanceof SystemMessage || removed >= messagesToRemove) {
+                trimmedMessages.add(message);
+            } else {
+                removed++;
+            }
+        }
+        return trimmedMessages;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private ChatMemoryRepository chatMemoryRepository;
+        private int maxMessages = DEFAULT_MAX_MESSAGES;
+        private int lockStripes = StripedLocks.DEFAULT_STRIPES;
+
+        private Builder() {
+        }
+
+        public Builder chatMemoryRepository(ChatMemoryRepository chatMemoryRepository) {
+            this.chatMemoryRepository = chatMemoryRepository;
+            return this;
+        }
+
+        public Builder maxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        /**
+         * Number of locks shared by all conversations; more stripes means fewer unrelated
+         * conversations contending for the same lock.
+         */
+        public Builder lockStripes(int lockStripes) {
+            this.lockStripes = lockStripes;
+            return this;
+        }
+
+        public CompactableMessageWindowChatMemory build() {
+            if (chatMemoryRepository == null) {
+                chatMemoryRepository = new InMemoryChatMemoryRepository();
+            }
+            return new CompactableMessageWindowChatMemory(chatMemoryRepository, maxMessages, lockStripes);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Compact, versioned binary format for chat messages, used wherever message histories are persisted or spilled.
+ *
+ * <p>Message layout:
+ * <pre>
+ * byte    version &lt;&lt; 4 | role          role: 1 user, 2 assistant, 3 system, 4 tool response
+ * byte    flags                        1 has metadata, 2 null text
+ * string  text                         unless null text
+ * [varint entries, (string key, byte type, value)*]   if has metadata
+ * assistant: varint toolCalls, (string id, string type, string name, string arguments)*
+ * tool:      varint responses, (string id, string name, string responseData)*
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8. Metadata values keep their type for
+ * booleans, ints, longs, doubles and strings; any other value is stored in its string form, and
+ * null values are skipped. Media attachments are not persisted.
+ *
+ * <p>A history is {@code byte version | varint count | message*}. Putting the version in each
+ * message's first byte costs nothing and lets a decoder reject single-message records written in a
+ * version it doesn't know.
+ *
+ * <p>{@link MessageEncoder} and {@link MessageDecoder} stream the format through a fixed-size
+ * {@link ByteBuffer}; the static methods here cover the in-memory cases.
+ */
+public final class MessageCodec {
+
+    static final byte VERSION = 1;
+
+    static final byte ROLE_USER = 1;
+    static final byte ROLE_ASSISTANT = 2;
+    static final byte ROLE_SYSTEM = 3;
+    static final byte ROLE_TOOL = 4;
+
+    static final byte HAS_METADATA = 1;
+    static final byte NULL_TEXT = 2;
+
+    static final byte VALUE_STRING = 1;
+    static final byte VALUE_BOOLEAN = 2;
+    static final byte VALUE_INT = 3;
+    static final byte VALUE_LONG = 4;
+    static final byte VALUE_DOUBLE = 5;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Encode one message, for storage inside a record that supplies its own framing.
+     */
+    public static byte[] encode(Message message) {
+        ByteBuffer encoded = new MessageEncoder(64 + MessageSizes.utf8Length(message.getText())).write(message).toByteBuffer();
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decode one message from exactly the remaining bytes of {@code buffer}.
+     */
+    public static Message decode(ByteBuffer buffer) {
+        return new MessageDecoder(buffer).read();
+    }
+
+    public static ByteBuffer encodeHistory(List<? extends Message> messages) {
+        return new MessageEncoder(256 * (messages.size() + 1)).writeHeader(messages.size()).write(messages).toByteBuffer();
+    }
+
+    public static List<Message> decodeHistory(ByteBuffer buffer) {
+        return new MessageDecoder(buffer).readHistory();
+    }
+
+    static byte role(Message message) {
+        return switch (message.getMessageType()) {
+            case USER -> ROLE_USER;
+            case ASSISTANT -> ROLE_ASSISTANT;
+            case SYSTEM -> ROLE_SYSTEM;
+            case TOOL -> ROLE_TOOL;
+        };
+    }
+}
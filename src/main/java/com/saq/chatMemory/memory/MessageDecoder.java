@@ -0,0 +1,208 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.saq.chatMemory.memory.MessageCodec.*;
+
+/**
+ * Streaming reader for the {@link MessageCodec} format.
+ *
+ * <p>Bound to a channel, the decoder refills its buffer from the channel whenever it needs more
+ * bytes, so histories of any size are read through a fixed amount of memory. Without a channel it
+ * reads straight from the given buffer.
+ */
+public final class MessageDecoder {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    /**
+     * Decoder that refills {@code buffer}, which must hold at least 16 bytes, from {@code channel}.
+     */
+    public MessageDecoder(ReadableByteChannel channel, ByteBuffer buffer) {
+        if (buffer.capacity() < 16) {
+            throw new IllegalArgumentException("buffer must hold at least 16 bytes");
+        }
+        this.channel = channel;
+        this.buffer = buffer.clear().flip();
+    }
+
+    /**
+     * Decoder over the remaining bytes of {@code buffer}.
+     */
+    public MessageDecoder(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read a history header written by {@link MessageEncoder#writeHeader}.
+     * @return Number of messages that follow
+     */
+    public int readHeader() {
+        require(1);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported message history version: " + version);
+        }
+        return readVarint();
+    }
+
+    public List<Message> readHistory() {
+        int count = readHeader();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(read());
+        }
+        return messages;
+    }
+
+    public Message read() {
+        require(1);
+        byte header = buffer.get();
+        int version = (header & 0xF0) >>> 4;
+        byte role = (byte) (header & 0x0F);
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported message encoding version " + version + ", expected " + VERSION);
+        }
+
+        require(1);
+        byte flags = buffer.get();
+        String text = (flags & NULL_TEXT) != 0 ? null : readString();
+        Map<String, Object> metadata = (flags & HAS_METADATA) != 0 ? readMetadata() : Map.of();
+
+        return switch (role) {
+            case ROLE_USER -> UserMessage.builder().text(text).metadata(metadata).build();
+            case ROLE_SYSTEM -> SystemMessage.builder().text(text).metadata(metadata).build();
+            case ROLE_ASSISTANT -> {
+                int count = readVarint();
+                List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    toolCalls.add(new AssistantMessage.ToolCall(readString(), readString(), readString(), readString()));
+                }
+                yield AssistantMessage.builder().content(text).properties(metadata).toolCalls(toolCalls).build();
+            }
+            case ROLE_TOOL -> {
+                int count = readVarint();
+                List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    responses.add(new ToolResponseMessage.ToolResponse(readString(), readString(), readString()));
+                }
+                yield ToolResponseMessage.builder().responses(responses).metadata(metadata).build();
+            }
+            default -> throw new IllegalStateException("Unknown message role: " + role);
+        };
+    }
+
+    private Map<String, Object> readMetadata() {
+        int entries = readVarint();
+        Map<String, Object> metadata = new HashMap<>(entries * 2);
+        for (int i = 0; i < entries; i++) {
+            String key = readString();
+            require(1);
+            byte type = buffer.get();
+            Object value = switch (type) {
+                case VALUE_STRING -> readString();
+                case VALUE_BOOLEAN -> {
+                    require(1);
+                    yield buffer.get() != 0;
+                }
+                case VALUE_INT -> {
+                    require(Integer.BYTES);
+                    yield buffer.getInt();
+                }
+                case VALUE_LONG -> {
+                    require(Long.BYTES);
+                    yield buffer.getLong();
+                }
+                case VALUE_DOUBLE -> {
+                    require(Double.BYTES);
+                    yield buffer.getDouble();
+                }
+                default -> throw new IllegalStateException("Unknown metadata value type: " + type);
+            };
+            metadata.put(key, value);
+        }
+        return metadata;
+    }
+
+    private String readString() {
+        int length = readVarint();
+        if (length <= buffer.capacity()) {
+            require(length);
+            String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+        // Longer than the buffer: gather it chunk by chunk
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                require(1);
+            }
+            int chunk = Math.min(buffer.remaining(), length - offset);
+            buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            require(1);
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    /**
+     * Make sure at least {@code bytes} are buffered, refilling from the channel if there is one.
+     */
+    private void require(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (channel == null) {
+            throw new IllegalStateException("Truncated message data");
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new IllegalStateException("Truncated message data");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read encoded messages", e);
+        } finally {
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.messages.AbstractMessage;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static com.saq.chatMemory.memory.MessageCodec.*;
+
+/**
+ * Streaming writer for the {@link MessageCodec} format.
+ *
+ * <p>Bound to a channel, the encoder fills its buffer and drains it to the channel whenever it runs
+ * out of room, so histories of any size are written through a fixed amount of memory. Without a
+ * channel, the buffer grows as needed and {@link #toByteBuffer()} returns the encoded bytes.
+ */
+public final class MessageEncoder {
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Encoder that drains to {@code channel} through {@code buffer}, which must hold at least 16 bytes.
+     */
+    public MessageEncoder(WritableByteChannel channel, ByteBuffer buffer) {
+        if (buffer.capacity() < 16) {
+            throw new IllegalArgumentException("buffer must hold at least 16 bytes");
+        }
+        this.channel = channel;
+        this.buffer = buffer.clear();
+    }
+
+    /**
+     * In-memory encoder that grows from {@code initialCapacity} as needed.
+     */
+    public MessageEncoder(int initialCapacity) {
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(Math.max(16, initialCapacity));
+    }
+
+    /**
+     * Start a history: the format version followed by the number of messages that will be written.
+     */
+    public MessageEncoder writeHeader(int messageCount) {
+        ensure(1 + Varints.MAX_VARINT_SIZE);
+        buffer.put(VERSION);
+        Varints.write(buffer, messageCount);
+        return this;
+    }
+
+    public MessageEncoder write(List<? extends Message> messages) {
+        for (Message message : messages) {
+            write(message);
+        }
+        return this;
+    }
+
+    public MessageEncoder write(Message message) {
+        byte role = role(message);
+        Map<String, Object> metadata = message.getMetadata();
+        int metadataEntries = 0;
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            if (isPersisted(entry)) {
+                metadataEntries++;
+            }
+        }
+        String text = message.getText();
+        byte flags = 0;
+        if (metadataEntries > 0) {
+            flags |= HAS_METADATA;
+        }
+        if (text == null) {
+            flags |= NULL_TEXT;
+        }
+
+        ensure(2);
+        buffer.put((byte) (VERSION << 4 | role));
+        buffer.put(flags);
+        if (text != null) {
+            writeString(text);
+        }
+        if (metadataEntries > 0) {
+            writeMetadata(metadata, metadataEntries);
+        }
+
+        if (message instanceof AssistantMessage assistant) {
+            List<AssistantMessage.ToolCall> toolCalls = assistant.getToolCalls();
+            writeVarint(toolCalls.size());
+            for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                writeString(toolCall.id());
+                writeString(toolCall.type());
+                writeString(toolCall.name());
+                writeString(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponse) {
+            List<ToolResponseMessage.ToolResponse> responses = toolResponse.getResponses();
+            writeVarint(responses.size());
+            for (ToolResponseMessage.ToolResponse response : responses) {
+                writeString(response.id());
+                writeString(response.name());
+                writeString(response.responseData());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Drain everything buffered so far to the channel.
+     */
+    public void flush() {
+        if (channel == null) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write encoded messages", e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The bytes written by an in-memory encoder, ready to read.
+     */
+    public ByteBuffer toByteBuffer() {
+        if (channel != null) {
+            throw new IllegalStateException("Encoder writes to a channel");
+        }
+        return buffer.duplicate().flip();
+    }
+
+    private void writeMetadata(Map<String, Object> metadata, int entries) {
+        writeVarint(entries);
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            if (!isPersisted(entry)) {
+                continue;
+            }
+            writeString(entry.getKey());
+            Object value = entry.getValue();
+            ensure(1 + Long.BYTES);
+            switch (value) {
+                case Boolean b -> buffer.put(VALUE_BOOLEAN).put((byte) (b ? 1 : 0));
+                case Integer i -> buffer.put(VALUE_INT).putInt(i);
+                case Long l -> buffer.put(VALUE_LONG).putLong(l);
+                case Double d -> buffer.put(VALUE_DOUBLE).putDouble(d);
+                default -> {
+                    // Strings, and anything else in its string form
+                    buffer.put(VALUE_STRING);
+                    writeString(value.toString());
+                }
+            }
+        }
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                makeRoom(bytes.length - offset);
+            }
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    private void writeVarint(int value) {
+        ensure(Varints.MAX_VARINT_SIZE);
+        Varints.write(buffer, value);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            makeRoom(bytes);
+        }
+    }
+
+    private void makeRoom(int wanted) {
+        if (channel != null) {
+            flush();
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + wanted));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * The message type entry is implied by the role and re-added by every message constructor,
+     * and messages don't accept null metadata values.
+     */
+    private static boolean isPersisted(Map.Entry<String, Object> entry) {
+        return entry.getValue() != null && !AbstractMessage.MESSAGE_TYPE.equals(entry.getKey());
+    }
+}
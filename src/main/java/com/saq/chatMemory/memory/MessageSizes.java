@@ -0,0 +1,67 @@
+package com.saq.chatMemory.memory;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.Map;
+
+/**
+ * Approximate retained size of messages, for enforcing memory budgets: the UTF-8 length of the
+ * text plus fixed overheads for the message object and each metadata entry.
+ *
+ * <p>These are estimates for comparing and budgeting conversations, not exact heap measurements.
+ */
+public final class MessageSizes {
+
+    /**
+     * Rough fixed cost of a message object, its text and metadata map headers.
+     */
+    static final int MESSAGE_OVERHEAD_BYTES = 128;
+
+    /**
+     * Rough cost of one metadata map entry and its boxed value, excluding key and string value text.
+     */
+    static final int METADATA_ENTRY_OVERHEAD_BYTES = 48;
+
+    private MessageSizes() {
+    }
+
+    public static long estimateBytes(Message message) {
+        long bytes = MESSAGE_OVERHEAD_BYTES + utf8Length(message.getText());
+        for (Map.Entry<String, Object> entry : message.getMetadata().entrySet()) {
+            bytes += METADATA_ENTRY_OVERHEAD_BYTES + utf8Length(entry.getKey());
+            if (entry.getValue() instanceof CharSequence text) {
+                bytes += utf8Length(text);
+            }
+        }
+        return bytes;
+    }
+
+    public static long estimateBytes(Iterable<Message> messages) {
+        long total = 0;
+        for (Message message : messages) {
+            total += estimateBytes(message);
+        }
+        return total;
+    }
+
+    static int utf8Length(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
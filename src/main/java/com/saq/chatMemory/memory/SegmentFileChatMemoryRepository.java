@@ -0,0 +1,431 @@
+package com.saq.chatMemory.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * {@link ChatMemoryRepository} backed by append-only segment files that are read and written
+ * through memory-mapped {@link FileChannel}s, so conversation history lives off-heap and survives restarts.
+ *
+ * <p>Every mutation is appended as one record:
+ * <ul>
+ *   <li><b>APPEND</b>: messages added to the end of a conversation. {@link #saveAll} writes one of
+ *       these when the saved list extends the stored one, which is the case for ordinary adds</li>
+ *   <li><b>TRUNCATE_APPEND</b>: drop the oldest n messages, then append new ones. Window eviction
+ *       reduces to this, so it doesn't rewrite the history</li>
+ *   <li><b>REPLACE</b>: the full new list, for anything else (compaction)</li>
+ *   <li><b>DELETE</b>: the conversation was removed</li>
+ * </ul>
+ * Stored messages are recognized in a saved list by their encoded bytes, so any change to a
+ * message, metadata included, is written.
+ *
+ * <p>Record layout: {@code int length | int crc32 | byte type | varint idLength | id |
+ * [varint dropped, TRUNCATE_APPEND only] | varint count | (varint messageLength | int messageCrc32 | message)*}.
+ * The length is written last, so a torn record at the tail fails its length or checksum and
+ * replay stops there.
+ *
+ * <p>The heap only holds a per-conversation index of message offsets. Reads decode straight
+ * from the mapped segment. Superseded records are reclaimed when a new segment is needed: if less
+ * than half of what was written is still live, the live history is rewritten into fresh segments,
+ * one REPLACE record per conversation, and the old segments are deleted, so disk usage stays
+ * within about twice the live history.
+ */
+public class SegmentFileChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentFileChatMemoryRepository.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte APPEND = 1;
+    private static final byte REPLACE = 2;
+    private static final byte DELETE = 3;
+    private static final byte TRUNCATE_APPEND = 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ConcurrentHashMap<String, List<MessageLocation>> index = new ConcurrentHashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment activeSegment;
+    private boolean compacting;
+
+    public SegmentFileChatMemoryRepository(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentFileChatMemoryRepository(Path directory, int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open chat memory segments in " + directory, e);
+        }
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<MessageLocation> locations = index.getOrDefault(conversationId, List.of());
+        List<Message> messages = new ArrayList<>(locations.size());
+        for (MessageLocation location : locations) {
+            messages.add(MessageCodec.decode(location.segment().buffer.slice(location.offset(), location.length())));
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized void saveAll(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            deleteByConversationId(conversationId);
+            return;
+        }
+        List<MessageLocation> existing = index.getOrDefault(conversationId, List.of());
+        List<EncodedMessage> encoded = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            encoded.add(EncodedMessage.of(MessageCodec.encode(message)));
+        }
+        int dropped = retainedSuffixStart(existing, encoded);
+        int kept = existing.size() - dropped;
+        if (dropped == 0 && kept == encoded.size()) {
+            return;
+        }
+
+        if (kept == 0) {
+            index.put(conversationId, List.copyOf(writeRecord(REPLACE, conversationId, 0, encoded)));
+            return;
+        }
+        List<EncodedMessage> appended = encoded.subList(kept, encoded.size());
+        List<MessageLocation> written = dropped == 0 ?
+                writeRecord(APPEND, conversationId, 0, appended) :
+                writeRecord(TRUNCATE_APPEND, conversationId, dropped, appended);
+        List<MessageLocation> locations = new ArrayList<>(encoded.size());
+        // Re-read: writing may have rewritten the live history into new segments
+        List<MessageLocation> current = index.get(conversationId);
+        locations.addAll(current.subList(dropped, current.size()));
+        locations.addAll(written);
+        index.put(conversationId, List.copyOf(locations));
+    }
+
+    @Override
+    public synchronized void deleteByConversationId(String conversationId) {
+        if (index.containsKey(conversationId)) {
+            writeRecord(DELETE, conversationId, 0, List.of());
+            index.remove(conversationId);
+        }
+    }
+
+    /**
+     * Rewrite the live history into fresh segments and delete the old ones now, regardless of how
+     * much of them is garbage.
+     */
+    public synchronized void compact() {
+        try {
+            compactSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact chat memory segments in " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close chat memory segment {}", segment.path, e);
+            }
+        }
+    }
+
+    /**
+     * Index of the first stored message that is kept when {@code messages} replaces {@code existing}:
+     * the smallest k such that {@code existing[k..]} is a prefix of {@code messages}.
+     */
+    private static int retainedSuffixStart(List<MessageLocation> existing, List<EncodedMessage> messages) {
+        for (int start = 0; start < existing.size(); start++) {
+            int kept = existing.size() - start;
+            if (kept <= messages.size() && storedAs(existing.subList(start, existing.size()), messages)) {
+                return start;
+            }
+        }
+        return existing.size();
+    }
+
+    private static boolean storedAs(List<MessageLocation> stored, List<EncodedMessage> messages) {
+        for (int i = 0; i < stored.size(); i++) {
+            MessageLocation location = stored.get(i);
+            EncodedMessage message = messages.get(i);
+            // The checksum rules out almost every mismatch without touching the mapped segment
+            if (location.length() != message.bytes().length || location.crc() != message.crc()
+                    || !location.segment().buffer.slice(location.offset(), location.length()).equals(ByteBuffer.wrap(message.bytes()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int recordSize(String conversationId, int dropped, List<Integer> messageLengths) {
+        int idLength = conversationId.getBytes(StandardCharsets.UTF_8).length;
+        int size = RECORD_HEADER_SIZE + 1 + Varints.size(idLength) + idLength + Varints.size(messageLengths.size());
+        if (dropped > 0) {
+            size += Varints.size(dropped);
+        }
+        for (int length : messageLengths) {
+            size += Varints.size(length) + Integer.BYTES + length;
+        }
+        return size;
+    }
+
+    private List<MessageLocation> writeRecord(byte type, String conversationId, int dropped, List<EncodedMessage> encoded) {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        int payloadSize = recordSize(conversationId, type == TRUNCATE_APPEND ? dropped : 0,
+                encoded.stream().map(message -> message.bytes().length).toList()) - RECORD_HEADER_SIZE;
+
+        Segment segment = segmentWithRoomFor(RECORD_HEADER_SIZE + payloadSize);
+        int recordStart = segment.writePosition;
+        int payloadStart = recordStart + RECORD_HEADER_SIZE;
+        ByteBuffer payload = segment.buffer.slice(payloadStart, payloadSize);
+        payload.put(type);
+        Varints.write(payload, id.length);
+        payload.put(id);
+        if (type == TRUNCATE_APPEND) {
+            Varints.write(payload, dropped);
+        }
+        Varints.write(payload, encoded.size());
+
+        List<MessageLocation> locations = new ArrayList<>(encoded.size());
+        for (EncodedMessage message : encoded) {
+            Varints.write(payload, message.bytes().length);
+            payload.putInt(message.crc());
+            locations.add(new MessageLocation(segment, payloadStart + payload.position(), message.bytes().length, message.crc()));
+            payload.put(message.bytes());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(segment.buffer.slice(payloadStart, payloadSize));
+        segment.buffer.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+        // Length goes in last: until it is set, replay treats this position as the end of the log
+        segment.buffer.putInt(recordStart, payloadSize);
+        segment.writePosition = payloadStart + payloadSize;
+        return locations;
+    }
+
+    private Segment segmentWithRoomFor(int recordSize) {
+        if (activeSegment.writePosition + recordSize <= activeSegment.buffer.capacity()) {
+            return activeSegment;
+        }
+        try {
+            if (!compacting && 2 * liveBytes() < writtenBytes()) {
+                compactSegments();
+                if (activeSegment.writePosition + recordSize <= activeSegment.buffer.capacity()) {
+                    return activeSegment;
+                }
+            }
+            activeSegment = createSegment(activeSegment.id + 1, Math.max(segmentSize, recordSize));
+            return activeSegment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create chat memory segment in " + directory, e);
+        }
+    }
+
+    /**
+     * Write every live conversation as one REPLACE record into new segments, then delete the old
+     * ones. Until the deletes the old records still replay first and the REPLACE records override
+     * them, so a crash part-way leaves the same history. Mappings of deleted segments stay valid
+     * for reads that already hold their locations.
+     */
+    private void compactSegments() throws IOException {
+        List<Segment> previous = List.copyOf(segments);
+        long before = writtenBytes();
+        compacting = true;
+        try {
+            activeSegment = createSegment(activeSegment.id + 1, segmentSize);
+            for (String conversationId : List.copyOf(index.keySet())) {
+                List<MessageLocation> locations = index.get(conversationId);
+                List<EncodedMessage> encoded = new ArrayList<>(locations.size());
+                for (MessageLocation location : locations) {
+                    byte[] bytes = new byte[location.length()];
+                    location.segment().buffer.get(location.offset(), bytes);
+                    encoded.add(new EncodedMessage(bytes, location.crc()));
+                }
+                index.put(conversationId, List.copyOf(writeRecord(REPLACE, conversationId, 0, encoded)));
+            }
+            for (Segment segment : segments) {
+                if (!previous.contains(segment)) {
+                    segment.buffer.force();
+                }
+            }
+        } finally {
+            compacting = false;
+        }
+
+        segments.removeAll(previous);
+        for (Segment segment : previous) {
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete compacted chat memory segment {}", segment.path, e);
+            }
+        }
+        logger.debug("Compacted chat memory segments in {}: {} -> {} bytes", directory, before, writtenBytes());
+    }
+
+    /**
+     * Bytes a compaction would write: one REPLACE record per conversation.
+     */
+    private long liveBytes() {
+        long bytes = 0;
+        for (var entry : index.entrySet()) {
+            bytes += recordSize(entry.getKey(), 0, entry.getValue().stream().map(MessageLocation::length).toList());
+        }
+        return bytes;
+    }
+
+    private long writtenBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.writePosition;
+        }
+        return bytes;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = openSegment(file, id, Files.size(file));
+            segment.writePosition = replay(segment);
+            segments.add(segment);
+        }
+        activeSegment = segments.isEmpty() ? createSegment(1, segmentSize) : segments.get(segments.size() - 1);
+        logger.debug("Recovered {} conversations from {} segments in {}", index.size(), segments.size(), directory);
+    }
+
+    private int replay(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            int payloadStart = position + RECORD_HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(payloadStart, length));
+            if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                logger.warn("Checksum mismatch in {} at offset {}, ignoring the rest of the segment", segment.path, position);
+                break;
+            }
+            apply(segment, payloadStart, buffer.slice(payloadStart, length));
+            position = payloadStart + length;
+        }
+        return position;
+    }
+
+    private void apply(Segment segment, int payloadStart, ByteBuffer payload) {
+        byte type = payload.get();
+        byte[] id = new byte[Varints.read(payload)];
+        payload.get(id);
+        String conversationId = new String(id, StandardCharsets.UTF_8);
+        if (type == DELETE) {
+            index.remove(conversationId);
+            return;
+        }
+
+        int dropped = type == TRUNCATE_APPEND ? Varints.read(payload) : 0;
+        int count = Varints.read(payload);
+        List<MessageLocation> locations = new ArrayList<>();
+        if (type == APPEND || type == TRUNCATE_APPEND) {
+            List<MessageLocation> existing = index.getOrDefault(conversationId, List.of());
+            locations.addAll(existing.subList(Math.min(dropped, existing.size()), existing.size()));
+        }
+        for (int i = 0; i < count; i++) {
+            int length = Varints.read(payload);
+            int crc = payload.getInt();
+            locations.add(new MessageLocation(segment, payloadStart + payload.position(), length, crc));
+            payload.position(payload.position() + length);
+        }
+        index.put(conversationId, List.copyOf(locations));
+    }
+
+    private Segment createSegment(int id, int size) throws IOException {
+        Path file = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = openSegment(file, id, size);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static Segment openSegment(Path file, int id, long size) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping past the end of a new file extends it, so a fresh segment is preallocated and zero-filled
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new Segment(id, file, channel, buffer);
+    }
+
+    private record MessageLocation(Segment segment, int offset, int length, int crc) {
+    }
+
+    private record EncodedMessage(byte[] bytes, int crc) {
+
+        static EncodedMessage of(byte[] bytes) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return new EncodedMessage(bytes, (int) crc.getValue());
+        }
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
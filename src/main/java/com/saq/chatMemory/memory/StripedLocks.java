@@ -0,0 +1,49 @@
+package com.saq.chatMemory.memory;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of locks selected by key hash, for per-conversation mutual exclusion without
+ * keeping a lock object per conversation alive.
+ *
+ * <p>The same key always maps to the same lock, so work on one conversation is serialized in
+ * lock-acquisition order, while unrelated conversations only contend when they share a stripe.
+ * Locks are reentrant, so nested sections on keys that share a stripe cannot deadlock.
+ */
+public final class StripedLocks {
+
+    public static final int DEFAULT_STRIPES = 256;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes Minimum number of locks; rounded up to a power of two
+     */
+    public StripedLocks(int stripes) {
+        if (stripes < 1 || stripes > (1 << 30)) {
+            throw new IllegalArgumentException("stripes must be between 1 and 2^30");
+        }
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public Lock lockFor(Object key) {
+        int h = key.hashCode();
+        // Spread the high bits down, as HashMap does, so similar IDs don't cluster on a few stripes
+        return locks[(h ^ (h >>> 16)) & mask];
+    }
+
+    public int stripes() {
+        return locks.length;
+    }
+}
@@ -0,0 +1,350 @@
+package com.saq.chatMemory.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Two-tier {@link ChatMemoryRepository}: recently used conversations stay on the heap in a bounded
+ * LRU, and idle ones are spilled to local disk as Deflater-compressed files, then reloaded into the
+ * hot tier the next time they are read.
+ *
+ * <p>The hot tier is bounded both by conversation count and by approximate retained bytes; the
+ * least recently used conversations are spilled until both limits hold. The spill directory is a
+ * cache, not durable storage, and is emptied on startup.
+ *
+ * <p>Operations on one conversation are serialized by a striped lock, and the tier maps are only
+ * held for bookkeeping: compression, decompression and file I/O run outside that critical section,
+ * so a slow spill doesn't stall reads and writes of unrelated conversations. A conversation that is
+ * being spilled stays readable from the heap until its file is written.
+ */
+public class TieredChatMemoryRepository implements ChatMemoryRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredChatMemoryRepository.class);
+
+    private static final String SPILL_PREFIX = "spill-";
+    private static final String SPILL_SUFFIX = ".bin";
+
+    private final Path spillDirectory;
+    private final int maxHotConversations;
+    private final long maxHotBytes;
+    private final StripedLocks conversationLocks = new StripedLocks();
+    // Guarded by synchronized (hot), together with spilling, cold and hotBytes
+    private final LinkedHashMap<String, HotEntry> hot = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, HotEntry> spilling = new HashMap<>();
+    private final Map<String, Path> cold = new HashMap<>();
+    private final AtomicLong spillSequence = new AtomicLong();
+    private long hotBytes;
+
+    public TieredChatMemoryRepository(Path spillDirectory, int maxHotConversations, long maxHotBytes) {
+        if (maxHotConversations < 1 || maxHotBytes < 1) {
+            throw new IllegalArgumentException("maxHotConversations and maxHotBytes must be at least 1");
+        }
+        this.spillDirectory = spillDirectory;
+        this.maxHotConversations = maxHotConversations;
+        this.maxHotBytes = maxHotBytes;
+        try {
+            Files.createDirectories(spillDirectory);
+            try (Stream<Path> stale = Files.list(spillDirectory)) {
+                for (Path file : stale.filter(TieredChatMemoryRepository::isSpillFile).toList()) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to prepare spill directory " + spillDirectory, e);
+        }
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        synchronized (hot) {
+            List<String> ids = new ArrayList<>(hot.size() + spilling.size() + cold.size());
+            ids.addAll(hot.keySet());
+            ids.addAll(spilling.keySet());
+            ids.addAll(cold.keySet());
+            return ids;
+        }
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            Path file;
+            synchronized (hot) {
+                HotEntry entry = hot.get(conversationId);
+                if (entry == null) {
+                    // Caught mid-spill: keep it on the heap, the spiller discards the file it wrote
+                    entry = spilling.remove(conversationId);
+                    if (entry != null) {
+                        putHot(conversationId, entry);
+                    }
+                }
+                if (entry != null) {
+                    return new ArrayList<>(entry.messages);
+                }
+                file = cold.get(conversationId);
+            }
+            if (file == null) {
+                return new ArrayList<>();
+            }
+            // The cold mapping and its file stay in place until the reload is on the heap, so a failed
+            // read can be retried instead of losing the conversation
+            HotEntry entry = new HotEntry(load(file));
+            logger.debug("Reloaded conversation {} from the cold tier ({} messages)", conversationId, entry.messages.size());
+            List<Message> messages = new ArrayList<>(entry.messages);
+            List<Map.Entry<String, HotEntry>> victims;
+            synchronized (hot) {
+                cold.remove(conversationId, file);
+                victims = putHot(conversationId, entry);
+            }
+            deleteSpillFile(file);
+            spillAll(victims);
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        HotEntry entry = new HotEntry(List.copyOf(messages));
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            Path stale;
+            List<Map.Entry<String, HotEntry>> victims;
+            synchronized (hot) {
+                spilling.remove(conversationId);
+                stale = cold.remove(conversationId);
+                victims = putHot(conversationId, entry);
+            }
+            deleteSpillFile(stale);
+            spillAll(victims);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        Lock lock = conversationLocks.lockFor(conversationId);
+        lock.lock();
+        try {
+            Path stale;
+            synchronized (hot) {
+                HotEntry removed = hot.remove(conversationId);
+                if (removed != null) {
+                    hotBytes -= removed.bytes;
+                }
+                spilling.remove(conversationId);
+                stale = cold.remove(conversationId);
+            }
+            deleteSpillFile(stale);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of conversations currently held on the heap
+     */
+    public int hotConversations() {
+        synchronized (hot) {
+            return hot.size();
+        }
+    }
+
+    /**
+     * @return Approximate bytes retained by the hot tier
+     */
+    public long hotBytes() {
+        synchronized (hot) {
+            return hotBytes;
+        }
+    }
+
+    /**
+     * @return Number of conversations currently spilled to disk
+     */
+    public int coldConversations() {
+        synchronized (hot) {
+            return cold.size();
+        }
+    }
+
+    /**
+     * Put a conversation in the hot tier and move the least recently used ones over budget to
+     * {@code spilling}. Must hold the {@code hot} monitor; the returned victims are written out by
+     * {@link #spillAll(List)} once it is released.
+     */
+    private List<Map.Entry<String, HotEntry>> putHot(String conversationId, HotEntry entry) {
+        HotEntry previous = hot.put(conversationId, entry);
+        hotBytes += entry.bytes - (previous != null ? previous.bytes : 0);
+
+        List<Map.Entry<String, HotEntry>> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, HotEntry>> eldest = hot.entrySet().iterator();
+        while ((hot.size() > maxHotConversations || hotBytes > maxHotBytes) && eldest.hasNext()) {
+            Map.Entry<String, HotEntry> candidate = eldest.next();
+            // Never spill the conversation being used right now, even if it alone is over budget
+            if (candidate.getKey().equals(conversationId)) {
+                continue;
+            }
+            victims.add(Map.entry(candidate.getKey(), candidate.getValue()));
+            spilling.put(candidate.getKey(), candidate.getValue());
+            hotBytes -= candidate.getValue().bytes;
+            eldest.remove();
+        }
+        return victims;
+    }
+
+    /**
+     * Write out spill victims. A victim that can't be written goes back to the hot tier, over budget
+     * until a later write spills it, rather than failing the caller's unrelated operation.
+     */
+    private void spillAll(List<Map.Entry<String, HotEntry>> victims) {
+        for (Map.Entry<String, HotEntry> victim : victims) {
+            Path file;
+            try {
+                file = spill(victim.getValue().messages);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to spill conversation {}, keeping it on the heap", victim.getKey(), e);
+                synchronized (hot) {
+                    if (spilling.remove(victim.getKey(), victim.getValue())) {
+                        hot.put(victim.getKey(), victim.getValue());
+                        hotBytes += victim.getValue().bytes;
+                    }
+                }
+                continue;
+            }
+            boolean current;
+            synchronized (hot) {
+                // Reloaded, overwritten or deleted while the file was being written
+                current = spilling.remove(victim.getKey(), victim.getValue());
+                if (current) {
+                    cold.put(victim.getKey(), file);
+                }
+            }
+            if (!current) {
+                deleteSpillFile(file);
+            }
+        }
+    }
+
+    private Path spill(List<Message> messages) {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        int size = Varints.size(messages.size());
+        for (Message message : messages) {
+            byte[] bytes = MessageCodec.encode(message);
+            encoded.add(bytes);
+            size += Varints.size(bytes.length) + bytes.length;
+        }
+        ByteBuffer raw = ByteBuffer.allocate(size);
+        Varints.write(raw, encoded.size());
+        for (byte[] bytes : encoded) {
+            Varints.write(raw, bytes.length);
+            raw.put(bytes);
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(size / 2 + 64);
+        try {
+            deflater.setInput(raw.array());
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        Path file = spillDirectory.resolve(SPILL_PREFIX + spillSequence.incrementAndGet() + SPILL_SUFFIX);
+        try {
+            Files.write(file, compressed.toByteArray());
+        } catch (IOException e) {
+            deleteSpillFile(file);
+            throw new UncheckedIOException("Failed to spill conversation to " + file, e);
+        }
+        return file;
+    }
+
+    private List<Message> load(Path file) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Files.readAllBytes(file));
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated spill file " + file);
+                }
+                raw.write(chunk, 0, inflated);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(raw.toByteArray());
+            int count = Varints.read(buffer);
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = Varints.read(buffer);
+                messages.add(MessageCodec.decode(buffer.slice(buffer.position(), length)));
+                buffer.position(buffer.position() + length);
+            }
+            return List.copyOf(messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to reload spilled conversation from " + file, e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt spill file " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void deleteSpillFile(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Failed to delete spill file {}", file, e);
+            }
+        }
+    }
+
+    private static boolean isSpillFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SPILL_PREFIX) && name.endsWith(SPILL_SUFFIX);
+    }
+
+    private static final class HotEntry {
+
+        private final List<Message> messages;
+        private final long bytes;
+
+        private HotEntry(List<Message> messages) {
+            this.messages = messages;
+            this.bytes = MessageSizes.estimateBytes(messages);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.saq.chatMemory.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 varints, as used for lengths and counts in the on-disk chat memory formats.
+ */
+final class Varints {
+
+    static final int MAX_VARINT_SIZE = 5;
+
+    private Varints() {
+    }
+
+    static void write(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int read(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    static int size(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
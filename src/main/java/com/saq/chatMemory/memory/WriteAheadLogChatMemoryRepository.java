@@ -0,0 +1,503 @@
+package com.saq.chatMemory.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Heap-resident {@link CompactableChatMemoryRepository} made crash-safe by a write-ahead log,
+ * with periodic snapshots so the log stays short.
+ *
+ * <p>Every mutation is appended to the active log before it is applied, as one record:
+ * <ul>
+ *   <li><b>TRUNCATE_APPEND</b>: drop the oldest n messages, then append new ones. Ordinary adds
+ *       and window eviction both reduce to this, so neither rewrites the history</li>
+ *   <li><b>COMPACT</b>: replace the oldest n messages with a summary and any pinned messages;
+ *       one record per compaction,
+ *       so recovery sees the conversation either before or after it, never half-way</li>
+ *   <li><b>REPLACE</b>: the full new list, for anything else</li>
+ *   <li><b>DELETE</b>: the conversation was removed</li>
+ * </ul>
+ *
+ * <p>Record layout: {@code int length | int crc32 | byte type | varint idLength | id | body}.
+ * A torn record at the tail fails its length or checksum; recovery stops there and truncates it.
+ * A failed append is cut off the log the same way before the next record is written.
+ *
+ * <p>After {@code snapshotInterval} records logging continues in {@code wal-N.log}, and the state
+ * as of that switch is written to {@code snapshot-N.bin} (one REPLACE record per conversation,
+ * published with an atomic rename) on a background thread, so writers only wait for the log
+ * rotation. Older files are deleted once the snapshot is durable; until then recovery replays them
+ * instead. Recovery loads the newest snapshot and replays the logs from its generation on. Records are checked sequentially, but decoding and applying them runs in parallel
+ * across conversations, since records for different conversations are independent.
+ */
+public class WriteAheadLogChatMemoryRepository implements CompactableChatMemoryRepository, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLogChatMemoryRepository.class);
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10_000;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte TRUNCATE_APPEND = 1;
+    private static final byte COMPACT = 2;
+    private static final byte REPLACE = 3;
+    private static final byte DELETE = 4;
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final int snapshotInterval;
+    private final boolean syncWrites;
+    private final ConcurrentHashMap<String, List<Message>> conversations = new ConcurrentHashMap<>();
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("chat-memory-wal-snapshot").daemon().factory());
+    private FileChannel log;
+    private long generation;
+    // Length of the log before an append that has not completed, or -1; bytes past it are torn
+    private long tornAt = -1;
+    private int recordsSinceSnapshot;
+    private Future<?> pendingSnapshot;
+
+    public WriteAheadLogChatMemoryRepository(Path directory) {
+        this(directory, DEFAULT_SNAPSHOT_INTERVAL, false);
+    }
+
+    /**
+     * @param directory Where the log and snapshot files live
+     * @param snapshotInterval Number of log records after which the state is snapshotted and the log restarted
+     * @param syncWrites Force every record to the storage device before returning. Without it a
+     *                   process crash loses nothing, but an OS crash or power loss can lose the latest writes
+     */
+    public WriteAheadLogChatMemoryRepository(Path directory, int snapshotInterval, boolean syncWrites) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("snapshotInterval must be at least 1");
+        }
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.syncWrites = syncWrites;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open chat memory write-ahead log in " + directory, e);
+        }
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return new ArrayList<>(conversations.keySet());
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        return new ArrayList<>(conversations.getOrDefault(conversationId, List.of()));
+    }
+
+    @Override
+    public synchronized void saveAll(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            deleteByConversationId(conversationId);
+            return;
+        }
+        List<Message> existing = conversations.getOrDefault(conversationId, List.of());
+        int dropped = retainedSuffixStart(existing, messages);
+        int kept = existing.size() - dropped;
+        if (dropped == 0 && kept == messages.size()) {
+            return;
+        }
+
+        List<Message> appended = messages.subList(kept, messages.size());
+        if (kept == 0) {
+            writeRecord(encode(REPLACE, conversationId, 0, appended));
+        } else {
+            writeRecord(encode(TRUNCATE_APPEND, conversationId, dropped, appended));
+        }
+        conversations.put(conversationId, List.copyOf(messages));
+        snapshotIfDue();
+    }
+
+    @Override
+    public synchronized void replacePrefix(String conversationId, int prefixLength, List<Message> replacement) {
+        List<Message> existing = conversations.getOrDefault(conversationId, List.of());
+        if (prefixLength < 0 || prefixLength > existing.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "prefixLength (%d) must be between 0 and the conversation size (%d)",
+                    prefixLength, existing.size()));
+        }
+        writeRecord(encode(COMPACT, conversationId, prefixLength, replacement));
+        conversations.put(conversationId, compact(existing, prefixLength, replacement));
+        snapshotIfDue();
+    }
+
+    @Override
+    public synchronized void deleteByConversationId(String conversationId) {
+        if (conversations.containsKey(conversationId)) {
+            writeRecord(encode(DELETE, conversationId, 0, List.of()));
+            conversations.remove(conversationId);
+            snapshotIfDue();
+        }
+    }
+
+    /**
+     * Snapshot the current state and start a new log now, regardless of the interval, and wait
+     * until the snapshot is durable.
+     */
+    public void snapshot() {
+        Future<?> written;
+        synchronized (this) {
+            written = rotate();
+        }
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the chat memory snapshot", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException io ? io : new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        // Let a snapshot in flight finish, so a restart doesn't have to replay the logs it covers
+        snapshotExecutor.close();
+        synchronized (this) {
+            try {
+                log.force(true);
+                log.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close chat memory write-ahead log in {}", directory, e);
+            }
+        }
+    }
+
+    /**
+     * Index of the first stored message that is kept when {@code messages} replaces {@code existing}:
+     * the smallest k such that {@code existing[k..]} is a prefix of {@code messages}.
+     */
+    private static int retainedSuffixStart(List<Message> existing, List<Message> messages) {
+        for (int start = 0; start < existing.size(); start++) {
+            int kept = existing.size() - start;
+            if (kept <= messages.size() && existing.subList(start, existing.size()).equals(messages.subList(0, kept))) {
+                return start;
+            }
+        }
+        return existing.size();
+    }
+
+    private static List<Message> compact(List<Message> existing, int prefixLength, List<Message> replacement) {
+        List<Message> compacted = new ArrayList<>(existing.size() - prefixLength + replacement.size());
+        compacted.addAll(replacement);
+        compacted.addAll(existing.subList(prefixLength, existing.size()));
+        return List.copyOf(compacted);
+    }
+
+    private void snapshotIfDue() {
+        // While the previous snapshot is still being written, keep logging to the current file
+        if (++recordsSinceSnapshot >= snapshotInterval && (pendingSnapshot == null || pendingSnapshot.isDone())) {
+            pendingSnapshot = rotate();
+        }
+    }
+
+    /**
+     * Start the next log generation and hand a copy of the state as of the switch to the snapshot
+     * thread. Must hold the monitor; only the log switch happens under it.
+     */
+    private Future<?> rotate() {
+        long next = generation + 1;
+        try {
+            FileChannel nextLog = openLog(next);
+            log.close();
+            log = nextLog;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start a new chat memory write-ahead log in " + directory, e);
+        }
+        generation = next;
+        recordsSinceSnapshot = 0;
+        // The stored lists are immutable, so a shallow copy is a consistent view of this point in the log
+        Map<String, List<Message>> state = Map.copyOf(conversations);
+        return snapshotExecutor.submit(() -> writeSnapshot(next, state));
+    }
+
+    private void writeSnapshot(long generation, Map<String, List<Message>> state) {
+        try {
+            Path snapshot = directory.resolve(fileName(SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+            Path temp = directory.resolve(snapshot.getFileName() + TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, List<Message>> entry : state.entrySet()) {
+                    writeFully(channel, encode(REPLACE, entry.getKey(), 0, entry.getValue()));
+                }
+                channel.force(true);
+            }
+            // Once the snapshot is in place the earlier files are redundant, so publish it atomically
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            deleteFilesBefore(generation);
+            logger.debug("Snapshotted {} conversations to {}", state.size(), snapshot);
+        } catch (IOException e) {
+            // The earlier snapshot and logs are still in place, so recovery stays correct, only slower
+            logger.warn("Failed to snapshot chat memory to {}", directory, e);
+            throw new UncheckedIOException("Failed to snapshot chat memory to " + directory, e);
+        }
+    }
+
+    private void writeRecord(ByteBuffer record) {
+        try {
+            discardTornTail();
+            tornAt = log.size();
+            writeFully(log, record);
+            if (syncWrites) {
+                log.force(false);
+            }
+            tornAt = -1;
+        } catch (IOException e) {
+            try {
+                discardTornTail();
+            } catch (IOException repair) {
+                // Retried before the next append, which fails instead of writing after the torn bytes
+                e.addSuppressed(repair);
+            }
+            throw new UncheckedIOException("Failed to append to chat memory write-ahead log in " + directory, e);
+        }
+    }
+
+    /**
+     * Remove what a failed append left at the end of the log. Recovery stops at the first torn record,
+     * so anything appended after one would be lost. If the log can't be truncated, logging continues
+     * in a new generation, which recovery replays after cutting the torn tail off the old one.
+     */
+    private void discardTornTail() throws IOException {
+        if (tornAt < 0) {
+            return;
+        }
+        try {
+            log.truncate(tornAt);
+            if (syncWrites) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to truncate a torn record from the chat memory write-ahead log, starting a new log", e);
+            FileChannel nextLog = openLog(generation + 1);
+            try {
+                log.close();
+            } catch (IOException ignored) {
+                // Nothing more will be written to it
+            }
+            log = nextLog;
+            generation++;
+        }
+        tornAt = -1;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Frame a record. {@code count} is the truncation point for TRUNCATE_APPEND and COMPACT and
+     * unused otherwise; {@code messages} are the appended messages, the compaction replacement, or the full list.
+     */
+    private static ByteBuffer encode(byte type, String conversationId, int count, List<Message> messages) {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        int payloadSize = 1 + Varints.size(id.length) + id.length + Varints.size(count) + Varints.size(messages.size());
+        for (Message message : messages) {
+            byte[] bytes = MessageCodec.encode(message);
+            encoded.add(bytes);
+            payloadSize += Varints.size(bytes.length) + bytes.length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadSize);
+        record.position(RECORD_HEADER_SIZE);
+        record.put(type);
+        Varints.write(record, id.length);
+        record.put(id);
+        Varints.write(record, count);
+        Varints.write(record, encoded.size());
+        for (byte[] bytes : encoded) {
+            Varints.write(record, bytes.length);
+            record.put(bytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, payloadSize);
+        record.putInt(0, payloadSize);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        return record.rewind();
+    }
+
+    private void recover() throws IOException {
+        List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        List<Path> logs = list(LOG_PREFIX, LOG_SUFFIX);
+        try (Stream<Path> temps = Files.list(directory)) {
+            for (Path temp : temps.filter(path -> path.getFileName().toString().endsWith(TEMP_SUFFIX)).toList()) {
+                Files.delete(temp);
+            }
+        }
+
+        long snapshotGeneration = 0;
+        if (!snapshots.isEmpty()) {
+            Path latest = snapshots.get(snapshots.size() - 1);
+            snapshotGeneration = generationOf(latest, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            replay(latest);
+        }
+        generation = snapshotGeneration;
+        Path activeLog = null;
+        for (Path file : logs) {
+            if (generationOf(file, LOG_PREFIX, LOG_SUFFIX) >= generation) {
+                long validLength = replay(file);
+                if (validLength < Files.size(file)) {
+                    logger.warn("Discarding torn record at the end of {} (offset {})", file, validLength);
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(validLength);
+                    }
+                }
+                activeLog = file;
+            }
+        }
+        if (activeLog != null) {
+            generation = generationOf(activeLog, LOG_PREFIX, LOG_SUFFIX);
+        }
+        // Logs after the snapshot stay until a newer snapshot covers them: the process may have stopped
+        // after switching logs but before the snapshot of that switch was written
+        deleteFilesBefore(snapshotGeneration);
+        log = openLog(generation);
+        logger.debug("Recovered {} conversations from {}", conversations.size(), directory);
+    }
+
+    /**
+     * Apply every intact record in a log or snapshot file, records for different conversations in parallel.
+     * @return Length of the intact prefix of the file
+     */
+    private long replay(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        Map<String, List<ByteBuffer>> recordsByConversation = new LinkedHashMap<>();
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(position + RECORD_HEADER_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            payload.position(1);
+            byte[] id = new byte[Varints.read(payload)];
+            payload.get(id);
+            recordsByConversation.computeIfAbsent(new String(id, StandardCharsets.UTF_8), key -> new ArrayList<>())
+                    .add(payload.rewind());
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        recordsByConversation.entrySet().parallelStream().forEach(entry -> {
+            List<Message> messages = conversations.get(entry.getKey());
+            for (ByteBuffer payload : entry.getValue()) {
+                messages = apply(messages, payload);
+            }
+            if (messages == null) {
+                conversations.remove(entry.getKey());
+            } else {
+                conversations.put(entry.getKey(), messages);
+            }
+        });
+        return position;
+    }
+
+    /**
+     * @return The conversation after the record, or null if it was deleted
+     */
+    private static List<Message> apply(List<Message> existing, ByteBuffer payload) {
+        byte type = payload.get();
+        int idLength = Varints.read(payload);
+        payload.position(payload.position() + idLength);
+        int count = Varints.read(payload);
+        List<Message> messages = new ArrayList<>(Varints.read(payload));
+        while (payload.hasRemaining()) {
+            int length = Varints.read(payload);
+            messages.add(MessageCodec.decode(payload.slice(payload.position(), length)));
+            payload.position(payload.position() + length);
+        }
+
+        List<Message> current = existing != null ? existing : List.of();
+        return switch (type) {
+            case TRUNCATE_APPEND -> {
+                List<Message> updated = new ArrayList<>(current.subList(count, current.size()));
+                updated.addAll(messages);
+                yield List.copyOf(updated);
+            }
+            case COMPACT -> compact(current, count, messages);
+            case REPLACE -> List.copyOf(messages);
+            case DELETE -> null;
+            default -> throw new IllegalStateException("Unknown write-ahead log record type: " + type);
+        };
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(fileName(LOG_PREFIX, generation, LOG_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (syncWrites) {
+            channel.force(true);
+        }
+        return channel;
+    }
+
+    private void deleteFilesBefore(long generation) throws IOException {
+        for (Path file : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (generationOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < generation) {
+                Files.delete(file);
+            }
+        }
+        for (Path file : list(LOG_PREFIX, LOG_SUFFIX)) {
+            if (generationOf(file, LOG_PREFIX, LOG_SUFFIX) < generation) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> listing = Files.list(directory)) {
+            return listing
+                    .filter(path -> path.getFileName().toString().startsWith(prefix)
+                            && path.getFileName().toString().endsWith(suffix))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long generationOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static String fileName(String prefix, long generation, String suffix) {
+        return String.format("%s%010d%s", prefix, generation, suffix);
+    }
+}
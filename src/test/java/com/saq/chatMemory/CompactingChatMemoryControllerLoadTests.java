@@ -0,0 +1,119 @@
+package com.saq.chatMemory;
+
+import com.saq.chatMemory.advisor.CompactingChatMemoryAdvisor;
+import com.saq.chatMemory.advisor.StubChatModel;
+import com.saq.chatMemory.memory.CompactableMessageWindowChatMemory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Drives thousands of independent conversations through the controller at once and checks that
+ * each conversation's memory holds only its own messages.
+ */
+class CompactingChatMemoryControllerLoadTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompactingChatMemoryControllerLoadTests.class);
+
+    private static final int CONVERSATIONS = 2_000;
+    private static final int TURNS = 10;
+
+    private ChatMemory chatMemory;
+    private StubChatModel summaryModel;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        chatMemory = CompactableMessageWindowChatMemory.builder().maxMessages(20).build();
+        summaryModel = new StubChatModel("summary");
+        CompactingChatMemoryAdvisor advisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(15)
+                .messagesToCompact(8)
+                .build();
+
+        // Echo the latest user message so every reply is traceable to its conversation
+        ChatModel echoModel = prompt -> new ChatResponse(List.of(
+                new Generation(new AssistantMessage("echo " + prompt.getUserMessage().getText()))));
+        CompactingChatMemoryController controller =
+                new CompactingChatMemoryController(ChatClient.builder(echoModel), advisor);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void conversationsStayIsolatedUnderConcurrentLoad() throws Exception {
+        long start = System.nanoTime();
+        List<Future<?>> results = new ArrayList<>(CONVERSATIONS);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CONVERSATIONS; c++) {
+                String conversationId = "user-" + c;
+                results.add(executor.submit(() -> {
+                    for (int turn = 0; turn < TURNS; turn++) {
+                        String message = conversationId + " turn " + turn;
+                        mockMvc.perform(get("/memory")
+                                        .param("message", message)
+                                        .header(CompactingChatMemoryController.CONVERSATION_ID_HEADER, conversationId))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string("echo " + message));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        logger.info("{} requests across {} conversations in {} ms ({} requests/s)",
+                CONVERSATIONS * TURNS, CONVERSATIONS, elapsed.toMillis(),
+                CONVERSATIONS * TURNS * 1000L / Math.max(1, elapsed.toMillis()));
+
+        // 16 messages after 8 turns cross the threshold of 15 once; the 9th turn compacts 8 of them
+        assertThat(summaryModel.getCalls()).isEqualTo(CONVERSATIONS);
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            String conversationId = "user-" + c;
+            List<Message> history = chatMemory.get(conversationId);
+            assertThat(history).hasSize(1 + (16 - 8) + 2 * (TURNS - 8));
+            assertThat(history)
+                    .filteredOn(msg -> !(msg instanceof SystemMessage))
+                    .allSatisfy(msg -> assertThat(msg.getText()).contains(conversationId + " turn "));
+        }
+    }
+
+    @Test
+    void endpointsWithoutHeaderUseDefaultConversation() throws Exception {
+        mockMvc.perform(get("/memory").param("message", "hello")).andExpect(status().isOk());
+        mockMvc.perform(get("/memory").param("message", "hi")
+                        .header(CompactingChatMemoryController.CONVERSATION_ID_HEADER, "other"))
+                .andExpect(status().isOk());
+
+        assertThat(chatMemory.get(ChatMemory.DEFAULT_CONVERSATION_ID)).hasSize(2);
+        mockMvc.perform(get("/clear").header(CompactingChatMemoryController.CONVERSATION_ID_HEADER, "other"))
+                .andExpect(status().isOk());
+        assertThat(chatMemory.get("other")).isEmpty();
+        assertThat(chatMemory.get(ChatMemory.DEFAULT_CONVERSATION_ID)).hasSize(2);
+    }
+}
@@ -0,0 +1,91 @@
+package com.saq.chatMemory.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.content.MediaContent;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class CachingTokenCountEstimatorTests {
+
+    private final CountingEstimator delegate = new CountingEstimator();
+
+    @Test
+    void repeatedTextsAreTokenizedOnce() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate, 100);
+
+        assertThat(estimator.estimate("hello")).isEqualTo(5);
+        assertThat(estimator.estimate("hello")).isEqualTo(5);
+        assertThat(estimator.estimate("hello world")).isEqualTo(11);
+        assertThat(estimator.estimate("hello")).isEqualTo(5);
+
+        assertThat(delegate.calls.get()).isEqualTo(2);
+        assertThat(estimator.size()).isEqualTo(2);
+    }
+
+    @Test
+    void cacheStaysWithinItsSizeAndEvictsLeastRecentlyUsedTexts() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate, 64);
+        estimator.estimate("kept");
+        for (int i = 0; i < 1000; i++) {
+            estimator.estimate("text " + i);
+            // Keep one text in use; it must survive eviction in its segment
+            estimator.estimate("kept");
+            assertThat(estimator.size()).isLessThanOrEqualTo(64);
+        }
+        int calls = delegate.calls.get();
+
+        estimator.estimate("kept");
+        assertThat(delegate.calls.get()).isEqualTo(calls);
+        // The earliest texts were evicted and are tokenized again
+        estimator.estimate("text 0");
+        assertThat(delegate.calls.get()).isEqualTo(calls + 1);
+    }
+
+    @Test
+    void capacitiesSmallerThanTheSegmentCountStillHold() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate, 3);
+        for (int i = 0; i < 100; i++) {
+            estimator.estimate("text " + i);
+        }
+        assertThat(estimator.size()).isBetween(1, 3);
+        assertThatIllegalArgumentException().isThrownBy(() -> new CachingTokenCountEstimator(delegate, 0));
+    }
+
+    @Test
+    void nullAndEmptyTextsCountAsZeroWithoutReachingTheDelegate() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate);
+
+        assertThat(estimator.estimate((String) null)).isZero();
+        assertThat(estimator.estimate("")).isZero();
+        assertThat(delegate.calls.get()).isZero();
+        assertThat(estimator.size()).isZero();
+    }
+
+    /**
+     * One token per character, counting how often it is asked.
+     */
+    private static final class CountingEstimator implements TokenCountEstimator {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public int estimate(String text) {
+            calls.incrementAndGet();
+            return text.length();
+        }
+
+        @Override
+        public int estimate(MediaContent content) {
+            return 0;
+        }
+
+        @Override
+        public int estimate(Iterable<MediaContent> messages) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,795 @@
+package com.saq.chatMemory.advisor;
+
+import com.saq.chatMemory.memory.MessageSizes;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class CompactingChatMemoryAdvisorTests {
+
+    private ChatMemory chatMemory;
+    private StubChatModel summaryModel;
+    private StubCallAdvisorChain chain;
+    private CompactingChatMemoryAdvisor advisor;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @BeforeEach
+    void setUp() {
+        chatMemory = MessageWindowChatMemory.builder().maxMessages(20).build();
+        summaryModel = new StubChatModel("short summary");
+        chain = new StubCallAdvisorChain(new StubChatModel("assistant reply"));
+        advisor = new CompactingChatMemoryAdvisor(chatMemory, summaryModel, 20, 6, 4);
+    }
+
+    @Test
+    void runningTotalsMatchMemory() {
+        for (int i = 0; i < 5; i++) {
+            advisor.adviseCall(request("conv-a", "question " + i), chain);
+        }
+        advisor.adviseCall(request("conv-b", "hello"), chain);
+
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(advisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+        assertThat(advisor.getConversationStats("conv-b")).isEqualTo(recount("conv-b"));
+        assertThat(advisor.getConversationStats()).containsOnlyKeys("conv-a", "conv-b");
+
+        advisor.clear("conv-a");
+        assertThat(advisor.getConversationStats()).containsOnlyKeys("conv-b");
+        assertThat(advisor.getConversationStats("conv-a")).isEqualTo(ConversationStats.EMPTY);
+    }
+
+    @Test
+    void compactionMetricsAreRecorded() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CompactingChatMemoryAdvisor meteredAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .meterRegistry(registry)
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            meteredAdvisor.adviseCall(request("conv-a", "question " + i), chain);
+        }
+
+        assertThat(registry.get("chat.memory.advisor.overhead").timer().count()).isEqualTo(4);
+        assertThat(registry.get("chat.memory.compaction.count").counter().count()).isEqualTo(1);
+        assertThat(registry.get("chat.memory.compaction.duration").timer().count()).isEqualTo(1);
+        assertThat(registry.get("chat.memory.compaction.summarizer.duration").timer().count()).isEqualTo(1);
+        assertThat(registry.get("chat.memory.compaction.prompt.tokens.before").summary().count()).isEqualTo(1);
+        assertThat(registry.get("chat.memory.compaction.failures").counter().count()).isZero();
+    }
+
+    @Test
+    void tokenThresholdTriggersCompactionBeforeMessageThreshold() {
+        CompactingChatMemoryAdvisor tokenAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(15)
+                .messagesToCompact(4)
+                .maxTokens(4000)
+                .compactThresholdTokens(2000)
+                .build();
+        String pastedLog = "ERROR connection reset by peer at line 42\n".repeat(100);
+
+        for (int i = 0; i < 3; i++) {
+            tokenAdvisor.adviseCall(request("conv-a", pastedLog), chain);
+        }
+
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(chatMemory.get("conv-a")).hasSize(3);
+    }
+
+    @Test
+    void incrementalSummaryFoldsPreviousSummary() {
+        CompactingChatMemoryAdvisor incrementalAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .incrementalSummary(true)
+                .build();
+
+        for (int i = 0; i < 6; i++) {
+            incrementalAdvisor.adviseCall(request("conv-a", "question " + i), chain);
+        }
+
+        assertThat(summaryModel.getCalls()).isEqualTo(2);
+        String secondSummaryPrompt = summaryModel.getLastPrompt().getContents();
+        assertThat(secondSummaryPrompt).contains("Existing summary:\nshort summary");
+        assertThat(secondSummaryPrompt).doesNotContain("question 0");
+        assertThat(chatMemory.get("conv-a")).filteredOn(CompactingChatMemoryAdvisor::isSummary).hasSize(1);
+    }
+
+    @Test
+    void plannerCompactsWholeTurnsUntilTheTokenTargetIsMet() {
+        CompactingChatMemoryAdvisor plannedAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(2)
+                .compactionTargetTokens(300)
+                .recentTailTokens(5)
+                .extractiveTokenBudget(50)
+                .build();
+        String pastedLog = "ERROR connection reset by peer at line 42\n".repeat(100);
+
+        plannedAdvisor.adviseCall(request("conv-a", "question 0"), chain);
+        plannedAdvisor.adviseCall(request("conv-a", pastedLog), chain);
+        plannedAdvisor.adviseCall(request("conv-a", "question 2"), chain);
+        plannedAdvisor.adviseCall(request("conv-a", "question 3"), chain);
+
+        // A fixed count of 2 would have left the pasted log in place; the planner compacts through its turn
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(summaryModel.getLastPrompt().getContents()).contains("ERROR connection reset");
+        assertThat(chatMemory.get("conv-a")).extracting(Message::getText)
+                .containsExactly(chatMemory.get("conv-a").get(0).getText(),
+                        "question 2", "assistant reply", "question 3", "assistant reply");
+        assertThat(plannedAdvisor.getConversationStats("conv-a").tokenCount()).isLessThan(300);
+        assertThat(plannedAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+    }
+
+    @Test
+    void plannerCompactsTurnsThatIncludeToolCallsAndResponses() {
+        CompactingChatMemoryAdvisor plannedAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(2)
+                .compactionTargetTokens(300)
+                .recentTailTokens(5)
+                .extractiveTokenBudget(50)
+                .build();
+        chatMemory.add("conv-a", List.of(
+                new UserMessage("what is the weather in Oslo?"),
+                AssistantMessage.builder().content("")
+                        .toolCalls(List.of(new AssistantMessage.ToolCall("call-1", "function", "weather", "{\"city\":\"Oslo\"}")))
+                        .build(),
+                ToolResponseMessage.builder()
+                        .responses(List.of(new ToolResponseMessage.ToolResponse("call-1", "weather", "{\"temp\":4}")))
+                        .build(),
+                new AssistantMessage("It is 4 degrees in Oslo.")));
+
+        plannedAdvisor.adviseCall(request("conv-a", "question 1"), chain);
+        plannedAdvisor.adviseCall(request("conv-a", "question 2"), chain);
+
+        // The whole tool-using turn was compacted, each role rendered with its own payload
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(summaryModel.getLastPrompt().getContents()).contains(
+                "User: what is the weather in Oslo?",
+                "Assistant: [called weather({\"city\":\"Oslo\"})]",
+                "Tool weather: {\"temp\":4}",
+                "Assistant: It is 4 degrees in Oslo.");
+        assertThat(chatMemory.get("conv-a")).extracting(Message::getText).containsExactly(
+                chatMemory.get("conv-a").get(0).getText(), "question 1", "assistant reply", "question 2", "assistant reply");
+        assertThat(chatMemory.get("conv-a")).first().matches(CompactingChatMemoryAdvisor::isSummary);
+    }
+
+    @Test
+    void toolCallsAndResultsCountTowardTheTokenTotals() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CompactingChatMemoryAdvisor meteredAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .meterRegistry(registry)
+                .build();
+        String weatherReport = "{\"temp\":4,\"wind\":\"north-west\",\"forecast\":\"%s\"}"
+                .formatted("light rain later in the evening ".repeat(30));
+        chatMemory.add("conv-a", List.of(
+                new UserMessage("what is the weather in Oslo?"),
+                AssistantMessage.builder().content("")
+                        .toolCalls(List.of(new AssistantMessage.ToolCall("call-1", "function", "weather", "{\"city\":\"Oslo\"}")))
+                        .build(),
+                ToolResponseMessage.builder()
+                        .responses(List.of(new ToolResponseMessage.ToolResponse("call-1", "weather", weatherReport)))
+                        .build(),
+                new AssistantMessage("It is 4 degrees in Oslo.")));
+
+        meteredAdvisor.adviseCall(request("conv-a", "question 1"), chain);
+        int beforeCompaction = meteredAdvisor.getConversationStats("conv-a").tokenCount();
+        assertThat(beforeCompaction).isEqualTo(recount("conv-a").tokenCount())
+                .isGreaterThan(tokenCountEstimator.estimate(weatherReport));
+
+        meteredAdvisor.adviseCall(request("conv-a", "question 2"), chain);
+
+        // The tool payload sent to the summarizer is also what the compaction reports as removed
+        assertThat(summaryModel.getLastPrompt().getContents()).contains("light rain later");
+        assertThat(registry.get("chat.memory.compaction.prompt.tokens.before").summary().max())
+                .isEqualTo(beforeCompaction);
+        assertThat(meteredAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+    }
+
+    @Test
+    void plannerCountsPinnedToolResultsAgainstTheTokenTarget() {
+        CompactingChatMemoryAdvisor plannedAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(2)
+                .compactionTargetTokens(300)
+                .recentTailTokens(5)
+                .extractiveTokenBudget(50)
+                .pinnedMessages(msg -> msg instanceof ToolResponseMessage)
+                .build();
+        String weatherReport = "{\"forecast\":\"%s\"}".formatted("light rain later in the evening ".repeat(17));
+        String firstDetails = "first turn details ".repeat(25);
+        String secondDetails = "second turn details ".repeat(25);
+        chatMemory.add("conv-a", List.of(
+                new UserMessage("what is the weather in Oslo?"),
+                AssistantMessage.builder().content("")
+                        .toolCalls(List.of(new AssistantMessage.ToolCall("call-1", "function", "weather", "{\"city\":\"Oslo\"}")))
+                        .build(),
+                ToolResponseMessage.builder()
+                        .responses(List.of(new ToolResponseMessage.ToolResponse("call-1", "weather", weatherReport)))
+                        .build(),
+                new AssistantMessage("It is 4 degrees in Oslo."),
+                new UserMessage(firstDetails),
+                new AssistantMessage("noted"),
+                new UserMessage(secondDetails),
+                new AssistantMessage("noted")));
+
+        plannedAdvisor.adviseCall(request("conv-a", "question 3"), chain);
+
+        // Kept verbatim, the tool result's tokens push the boundary past the first detailed turn
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(summaryModel.getLastPrompt().getContents()).contains("first turn details")
+                .doesNotContain("light rain later");
+        List<Message> kept = chatMemory.get("conv-a");
+        assertThat(kept).anyMatch(msg -> msg instanceof ToolResponseMessage);
+        assertThat(kept).extracting(Message::getText).doesNotContain(firstDetails).contains(secondDetails);
+        assertThat(plannedAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+        assertThat(recount("conv-a").tokenCount()).isLessThanOrEqualTo(300);
+    }
+
+    @Test
+    void pinnedMessagesAreKeptVerbatimAroundTheSummary() {
+        CompactingChatMemoryAdvisor pinningAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .pinnedMessages(msg -> msg.getText().startsWith("ticket"))
+                .build();
+        chatMemory.add("conv-a", new SystemMessage("You are a support agent."));
+
+        pinningAdvisor.adviseCall(pinnedRequest("conv-a", "spec: always answer in French"), chain);
+        pinningAdvisor.adviseCall(request("conv-a", "ticket 42 is open"), chain);
+        pinningAdvisor.adviseCall(request("conv-a", "question 2"), chain);
+        pinningAdvisor.adviseCall(request("conv-a", "question 3"), chain);
+
+        // Neither the system prompt, the flagged spec nor the predicate-pinned ticket went to the summarizer
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(summaryModel.getLastPrompt().getContents())
+                .doesNotContain("support agent", "answer in French", "ticket 42");
+        assertThat(chatMemory.get("conv-a")).extracting(Message::getText)
+                .containsExactly("You are a support agent.", "spec: always answer in French",
+                        "Summary of previous conversation: short summary", "ticket 42 is open", "assistant reply",
+                        "question 2", "assistant reply", "question 3", "assistant reply");
+        assertThat(chatMemory.get("conv-a").get(1).getMetadata())
+                .containsEntry(CompactingChatMemoryAdvisor.PINNED_METADATA_KEY, true);
+        assertThat(pinningAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+    }
+
+    @Test
+    void largeCompactionRangesAreSummarizedInParallelChunks() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        StubChatModel gatedSummaryModel = new StubChatModel("short summary", gate);
+        CompactingChatMemoryAdvisor mapReduceAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, gatedSummaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .mapReduceChunkTokens(100)
+                .mapReduceConcurrency(4)
+                .build();
+        String longQuestion = "please review this design decision carefully ".repeat(40);
+        for (int i = 0; i < 3; i++) {
+            mapReduceAdvisor.adviseCall(request("conv-a", longQuestion + i), chain);
+        }
+
+        CompletableFuture<ChatClientResponse> compacting = CompletableFuture.supplyAsync(
+                () -> mapReduceAdvisor.adviseCall(request("conv-a", longQuestion + 3), chain));
+        // Chunks run concurrently: all four chunk calls are in flight before any of them answers
+        await().until(() -> gatedSummaryModel.getInFlight() == 4);
+        gate.countDown();
+        compacting.get(10, TimeUnit.SECONDS);
+
+        // Every user message exceeds the chunk budget, so the 4 compacted messages make 4 chunks, plus the reduce call
+        assertThat(gatedSummaryModel.getCalls()).isEqualTo(5);
+        assertThat(gatedSummaryModel.getMaxInFlight()).isEqualTo(4);
+        assertThat(gatedSummaryModel.getLastPrompt().getContents()).startsWith("The following are summaries");
+        assertThat(chatMemory.get("conv-a")).filteredOn(CompactingChatMemoryAdvisor::isSummary).hasSize(1);
+    }
+
+    @Test
+    void cachedChunksDoNotQueueBehindChunksWaitingForTheScheduler() throws Exception {
+        SummarizerScheduler scheduler = new SummarizerScheduler(1, 0, 0);
+        CompactingChatMemoryAdvisor mapReduceAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .mapReduceChunkTokens(100)
+                .mapReduceConcurrency(1)
+                .summaryCache(new SummaryCache(100, null))
+                .summarizerScheduler(scheduler)
+                .build();
+        String longQuestion = "please review this design decision carefully ".repeat(40);
+        for (int i = 0; i < 4; i++) {
+            mapReduceAdvisor.adviseCall(request("conv-a", longQuestion + i), chain);
+        }
+        int calls = summaryModel.getCalls();
+
+        // conv-b compacts an uncached range and waits for the scheduler's only slot
+        CompletableFuture<Void> blocked;
+        try (SummarizerScheduler.Permit held = scheduler.acquire(SummarizerScheduler.Priority.INTERACTIVE, 0)) {
+            blocked = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 4; i++) {
+                    mapReduceAdvisor.adviseCall(request("conv-b", "another " + longQuestion + i), chain);
+                }
+            });
+            await().until(() -> scheduler.queued() == 1);
+
+            // conv-c repeats conv-a's range, so every chunk is a cache hit and needs no slot
+            CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 4; i++) {
+                    mapReduceAdvisor.adviseCall(request("conv-c", longQuestion + i), chain);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertThat(chatMemory.get("conv-c")).filteredOn(CompactingChatMemoryAdvisor::isSummary).hasSize(1);
+            assertThat(summaryModel.getCalls()).isEqualTo(calls);
+            assertThat(blocked).isNotDone();
+        }
+        blocked.get(10, TimeUnit.SECONDS);
+        assertThat(chatMemory.get("conv-b")).filteredOn(CompactingChatMemoryAdvisor::isSummary).hasSize(1);
+    }
+
+    @Test
+    void extractiveCompactionKeepsDistinctiveSentencesWithoutCallingTheSummarizer() {
+        CompactingChatMemoryAdvisor extractiveAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .compactionStrategy(CompactingChatMemoryAdvisor.CompactionStrategy.EXTRACTIVE)
+                .extractiveTokenBudget(30)
+                .build();
+        List<String> questions = List.of(
+                "We decided to migrate the billing service to PostgreSQL. Thanks. Thanks again.",
+                "Thanks. The deadline for the migration is March 3rd. Thanks.",
+                "Thanks. Thanks.",
+                "Thanks.");
+
+        for (String question : questions) {
+            extractiveAdvisor.adviseCall(request("conv-a", question), chain);
+        }
+
+        assertThat(summaryModel.getCalls()).isZero();
+        Message summary = chatMemory.get("conv-a").get(0);
+        assertThat(CompactingChatMemoryAdvisor.isSummary(summary)).isTrue();
+        assertThat(summary.getText())
+                .contains("User: We decided to migrate the billing service to PostgreSQL.")
+                .contains("User: The deadline for the migration is March 3rd.")
+                .doesNotContain("Thanks again");
+        assertThat(tokenCountEstimator.estimate(summary.getText())).isLessThan(30 + 10);
+        assertThat(extractiveAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+    }
+
+    @Test
+    void slowSummarizerTripsBreakerAndCompactionFallsBack() {
+        // Never answers; each call is abandoned at the summarizer timeout and interrupted
+        StubChatModel hangingSummaryModel = new StubChatModel("short summary", new CountDownLatch(1));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CompactingChatMemoryAdvisor guardedAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, hangingSummaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .summarizerTimeout(Duration.ofMillis(100))
+                .breakerFailureThreshold(2)
+                .breakerOpenDuration(Duration.ofMinutes(1))
+                .summarizerFallback(CompactingChatMemoryAdvisor.SummarizerFallback.EXTRACTIVE)
+                .meterRegistry(registry)
+                .build();
+
+        for (String conversationId : List.of("conv-a", "conv-b", "conv-c")) {
+            for (int i = 0; i < 4; i++) {
+                guardedAdvisor.adviseCall(request(conversationId, "question " + i + " about " + conversationId), chain);
+            }
+            assertThat(chatMemory.get(conversationId)).first().matches(CompactingChatMemoryAdvisor::isSummary);
+            assertThat(chatMemory.get(conversationId).get(0).getText()).contains("question 0 about " + conversationId);
+        }
+
+        // Two timeouts opened the breaker, so the third compaction never reached the summarizer
+        assertThat(hangingSummaryModel.getCalls()).isEqualTo(2);
+        assertThat(registry.get("chat.memory.compaction.summarizer.timeouts").counter().count()).isEqualTo(2);
+        assertThat(registry.get("chat.memory.compaction.fallbacks").tag("fallback", "extractive").counter().count()).isEqualTo(3);
+        assertThat(registry.get("chat.memory.compaction.summarizer.breaker.state").gauge().value()).isEqualTo(2);
+        assertThat(registry.get("chat.memory.compaction.failures").counter().count()).isZero();
+
+        // Another advisor on the same registry publishes its own breaker state instead of being ignored
+        CompactingChatMemoryAdvisor otherAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .name("other")
+                .meterRegistry(registry)
+                .build();
+        assertThat(registry.get("chat.memory.compaction.summarizer.breaker.state").tag("advisor", "default").gauge().value())
+                .isEqualTo(2);
+        assertThat(registry.get("chat.memory.compaction.summarizer.breaker.state").tag("advisor", "other").gauge().value())
+                .isZero();
+        otherAdvisor.close();
+        guardedAdvisor.close();
+    }
+
+    @Test
+    void sharedSchedulerAdmitsInteractiveCallsBeforeQueuedBackgroundOnes() throws Exception {
+        SummarizerScheduler scheduler = new SummarizerScheduler(1, 0, 0);
+        List<SummarizerScheduler.Priority> admitted = new CopyOnWriteArrayList<>();
+        Thread background;
+        Thread interactive;
+        try (SummarizerScheduler.Permit busy = scheduler.acquire(SummarizerScheduler.Priority.BACKGROUND, 0)) {
+            background = Thread.ofVirtual().start(() -> admit(scheduler, SummarizerScheduler.Priority.BACKGROUND, admitted));
+            await().until(() -> scheduler.queued() == 1);
+            interactive = Thread.ofVirtual().start(() -> admit(scheduler, SummarizerScheduler.Priority.INTERACTIVE, admitted));
+            await().until(() -> scheduler.queued() == 2);
+            assertThat(scheduler.active()).isEqualTo(1);
+        }
+        background.join(5000);
+        interactive.join(5000);
+
+        // The background call queued first, but the interactive one overtook it
+        assertThat(admitted).containsExactly(SummarizerScheduler.Priority.INTERACTIVE, SummarizerScheduler.Priority.BACKGROUND);
+        assertThat(scheduler.active()).isZero();
+    }
+
+    @Test
+    void schedulerHoldsSummarizerCallsUntilTheTokenBucketRefills() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicLong clock = new AtomicLong();
+        // 100 tokens a second on a clock that only moves when the test says so
+        SummarizerScheduler scheduler = new SummarizerScheduler(1, 0, 6_000, clock::get);
+        scheduler.bindTo(registry);
+        CompactingChatMemoryAdvisor scheduledAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .summarizerScheduler(scheduler)
+                .meterRegistry(registry)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            scheduledAdvisor.adviseCall(request("conv-a", "question " + i), chain);
+        }
+        scheduler.acquire(SummarizerScheduler.Priority.BACKGROUND, 6_000).close();
+        // Reply tokens are charged afterwards and can leave the bucket in debt
+        scheduler.recordTokens(30);
+        CompletableFuture<ChatClientResponse> compacting = CompletableFuture.supplyAsync(
+                () -> scheduledAdvisor.adviseCall(request("conv-a", "question 3"), chain));
+
+        await().until(() -> scheduler.queued() == 1);
+        assertThat(compacting).isNotDone();
+        assertThat(summaryModel.getCalls()).isZero();
+
+        // A minute later the bucket is full again
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        compacting.get(10, TimeUnit.SECONDS);
+
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        Timer wait = registry.get("chat.memory.compaction.scheduler.wait").tag("priority", "interactive").timer();
+        assertThat(wait.count()).isEqualTo(1);
+        assertThat(registry.get("chat.memory.compaction.scheduler.active").gauge().value()).isZero();
+        assertThat(registry.get("chat.memory.compaction.scheduler.queued").gauge().value()).isZero();
+    }
+
+    @Test
+    void identicalRangesAreSummarizedFromCache(@TempDir Path cacheDirectory) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SummaryCache cache = new SummaryCache(100, cacheDirectory);
+        CompactingChatMemoryAdvisor cachingAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .summaryCache(cache)
+                .meterRegistry(registry)
+                .build();
+
+        // Two conversations from the same script compact the same range
+        for (String conversationId : List.of("conv-a", "conv-b")) {
+            for (int i = 0; i < 4; i++) {
+                cachingAdvisor.adviseCall(request(conversationId, "onboarding step " + i), chain);
+            }
+        }
+
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(chatMemory.get("conv-b")).first().extracting(Message::getText).asString().endsWith("short summary");
+        assertThat(registry.get("chat.memory.compaction.summary.cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+
+        // A fresh cache over the same directory, as after a restart, serves it from disk
+        SummaryCache restarted = new SummaryCache(100, cacheDirectory);
+        CompactingChatMemoryAdvisor restartedAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .summaryCache(restarted)
+                .build();
+        for (int i = 0; i < 4; i++) {
+            restartedAdvisor.adviseCall(request("conv-c", "onboarding step " + i), chain);
+        }
+
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(restarted.diskHits()).isEqualTo(1);
+    }
+
+    @Test
+    void asyncCompactionSwapsSummaryInWithoutLosingNewMessages() {
+        CountDownLatch gate = new CountDownLatch(1);
+        StubChatModel gatedSummaryModel = new StubChatModel("short summary", gate);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (CompactingChatMemoryAdvisor asyncAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, gatedSummaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .asyncCompaction(true)
+                .meterRegistry(registry)
+                .build()) {
+            for (int i = 0; i < 3; i++) {
+                asyncAdvisor.adviseCall(request("conv-a", "question " + i), chain);
+            }
+
+            // Threshold reached: this request completes while the summarizer is still blocked
+            asyncAdvisor.adviseCall(request("conv-a", "question 3"), chain);
+            await().until(() -> gatedSummaryModel.getInFlight() == 1);
+            assertThat(chatMemory.get("conv-a")).hasSize(8);
+
+            gate.countDown();
+            Timer swapLatency = registry.get("chat.memory.compaction.async.swap.latency").timer();
+            await().until(() -> swapLatency.count() == 1);
+
+            assertThat(gatedSummaryModel.getCalls()).isEqualTo(1);
+            assertThat(chatMemory.get("conv-a")).hasSize(5);
+            assertThat(chatMemory.get("conv-a")).last().extracting(Message::getText).isEqualTo("assistant reply");
+            assertThat(asyncAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+        }
+    }
+
+    @Test
+    void streamingAggregatesReplyAndCompactsAfterStream() {
+        StreamAdvisorChain streamChain = new StreamAdvisorChain() {
+            @Override
+            public Flux<ChatClientResponse> nextStream(ChatClientRequest request) {
+                return Flux.just("Hel", "lo ", "there").map(chunk -> ChatClientResponse.builder()
+                        .chatResponse(new ChatResponse(List.of(new Generation(new AssistantMessage(chunk)))))
+                        .build());
+            }
+
+            @Override
+            public List<StreamAdvisor> getStreamAdvisors() {
+                return List.of();
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            List<ChatClientResponse> chunks = advisor.adviseStream(request("conv-a", "question " + i), streamChain)
+                    .collectList()
+                    .block();
+            assertThat(chunks).hasSize(3);
+        }
+        assertThat(chatMemory.get("conv-a")).last().extracting(Message::getText).isEqualTo("Hello there");
+
+        await().until(() -> chatMemory.get("conv-a").size() == 3);
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+        assertThat(chatMemory.get("conv-a")).hasSize(3);
+    }
+
+    @Test
+    void idleConversationsAreSummarizedIntoOneMessage() {
+        AtomicLong clock = new AtomicLong();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (CompactingChatMemoryAdvisor idleAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .idleTtl(Duration.ofMillis(200))
+                .sweepInterval(Duration.ofHours(1))
+                .nanoClock(clock::get)
+                .meterRegistry(registry)
+                .build()) {
+            idleAdvisor.adviseCall(request("conv-a", "question 0"), chain);
+            idleAdvisor.adviseCall(request("conv-a", "question 1"), chain);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+            idleAdvisor.adviseCall(request("conv-b", "hello"), chain);
+
+            idleAdvisor.sweepIdleConversations();
+
+            assertThat(summaryModel.getCalls()).isEqualTo(1);
+            assertThat(chatMemory.get("conv-a")).hasSize(1)
+                    .allMatch(CompactingChatMemoryAdvisor::isSummary);
+            assertThat(chatMemory.get("conv-b")).hasSize(2);
+            assertThat(idleAdvisor.getConversationStats("conv-a")).isEqualTo(recount("conv-a"));
+            assertThat(registry.get("chat.memory.compaction.idle.evictions").tag("action", "summarize")
+                    .counter().count()).isEqualTo(1);
+
+            // Untracked once summarized, so later sweeps leave the summary alone
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+            idleAdvisor.sweepIdleConversations();
+            assertThat(summaryModel.getCalls()).isEqualTo(2);
+            assertThat(chatMemory.get("conv-a")).hasSize(1);
+            assertThat(chatMemory.get("conv-b")).hasSize(1);
+        }
+    }
+
+    @Test
+    void idleConversationsAreDroppedInBatches() {
+        AtomicLong clock = new AtomicLong();
+        try (CompactingChatMemoryAdvisor idleAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .idleTtl(Duration.ofMillis(1))
+                .idleEviction(CompactingChatMemoryAdvisor.EvictionAction.DROP)
+                .sweepInterval(Duration.ofHours(1))
+                .sweepBatchSize(3)
+                .nanoClock(clock::get)
+                .build()) {
+            for (int i = 0; i < 5; i++) {
+                idleAdvisor.adviseCall(request("conv-" + i, "hello"), chain);
+            }
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+
+            idleAdvisor.sweepIdleConversations();
+            assertThat(idleAdvisor.getConversationStats()).hasSize(2);
+            idleAdvisor.sweepIdleConversations();
+            assertThat(idleAdvisor.getConversationStats()).isEmpty();
+            for (int i = 0; i < 5; i++) {
+                assertThat(chatMemory.get("conv-" + i)).isEmpty();
+            }
+            assertThat(summaryModel.getCalls()).isZero();
+        }
+    }
+
+    @Test
+    void heapBudgetEvictsLargestConversationsFirst() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (CompactingChatMemoryAdvisor budgetAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .maxHeapBytes(6_200)
+                .heapEviction(CompactingChatMemoryAdvisor.EvictionAction.DROP)
+                .meterRegistry(registry)
+                .build()) {
+            Gauge usage = registry.get("chat.memory.heap.usage").gauge();
+            for (int i = 0; i < 3; i++) {
+                budgetAdvisor.adviseCall(request("conv-small-" + i, "hi"), chain);
+                budgetAdvisor.adviseCall(request("conv-small-" + i, "hi again"), chain);
+            }
+            budgetAdvisor.adviseCall(request("conv-big", "x".repeat(1500)), chain);
+            budgetAdvisor.adviseCall(request("conv-big", "y".repeat(1500)), chain);
+            assertThat(usage.value()).isEqualTo(heapBytes("conv-big", "conv-small-0", "conv-small-1", "conv-small-2"));
+            assertThat(usage.value()).isLessThan(6_200);
+
+            // A new conversation pushes the total over budget; the largest one goes first
+            budgetAdvisor.adviseCall(request("conv-new", "hi"), chain);
+            await().until(() -> usage.value() <= 6_200);
+
+            assertThat(chatMemory.get("conv-big")).isEmpty();
+            for (int i = 0; i < 3; i++) {
+                assertThat(chatMemory.get("conv-small-" + i)).hasSize(4);
+            }
+            assertThat(chatMemory.get("conv-new")).hasSize(2);
+            assertThat(usage.value()).isEqualTo(heapBytes("conv-new", "conv-small-0", "conv-small-1", "conv-small-2"));
+            assertThat(registry.get("chat.memory.heap.evictions").tag("action", "drop").counter().count())
+                    .isEqualTo(1);
+        }
+    }
+
+    @Test
+    void heapBudgetDropsSummarizedConversationsWhenSummariesAloneExceedIt() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StubChatModel verboseSummaryModel = new StubChatModel("s".repeat(1000));
+        try (CompactingChatMemoryAdvisor budgetAdvisor = CompactingChatMemoryAdvisor.builder(chatMemory, verboseSummaryModel)
+                .maxMessages(20)
+                .compactThreshold(6)
+                .messagesToCompact(4)
+                .maxHeapBytes(2_000)
+                .heapEviction(CompactingChatMemoryAdvisor.EvictionAction.SUMMARIZE)
+                .meterRegistry(registry)
+                .build()) {
+            Gauge usage = registry.get("chat.memory.heap.usage").gauge();
+            List<String> conversationIds = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                conversationIds.add("conv-" + i);
+                budgetAdvisor.adviseCall(request("conv-" + i, "question"), chain);
+                budgetAdvisor.adviseCall(request("conv-" + i, "follow-up"), chain);
+            }
+
+            // Each summary outweighs the history it replaced, so only dropping summarized conversations meets the budget
+            await().until(() -> usage.value() <= 2_000);
+            assertThat(registry.get("chat.memory.heap.evictions").tag("action", "summarize").counter().count()).isPositive();
+            assertThat(registry.get("chat.memory.heap.evictions").tag("action", "drop").counter().count()).isPositive();
+            assertThat(usage.value()).isEqualTo(heapBytes(conversationIds.toArray(String[]::new)));
+        }
+    }
+
+    private double heapBytes(String... conversationIds) {
+        return Arrays.stream(conversationIds)
+                .mapToLong(conversationId -> MessageSizes.estimateBytes(chatMemory.get(conversationId)))
+                .sum();
+    }
+
+    private static void admit(SummarizerScheduler scheduler, SummarizerScheduler.Priority priority,
+                              List<SummarizerScheduler.Priority> admitted) {
+        try (SummarizerScheduler.Permit permit = scheduler.acquire(priority, 0)) {
+            admitted.add(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ConversationStats recount(String conversationId) {
+        List<Message> messages = chatMemory.get(conversationId);
+        int tokens = messages.stream().mapToInt(this::tokens).sum();
+        return new ConversationStats(messages.size(), tokens);
+    }
+
+    /**
+     * Text plus tool call names and arguments and tool results, counted independently of the advisor.
+     */
+    private int tokens(Message message) {
+        int tokens = tokenCountEstimator.estimate(message.getText());
+        if (message instanceof AssistantMessage assistant) {
+            tokens += assistant.getToolCalls().stream()
+                    .mapToInt(call -> tokenCountEstimator.estimate(call.name()) + tokenCountEstimator.estimate(call.arguments()))
+                    .sum();
+        }
+        if (message instanceof ToolResponseMessage tool) {
+            tokens += tool.getResponses().stream()
+                    .mapToInt(response -> tokenCountEstimator.estimate(response.responseData()))
+                    .sum();
+        }
+        return tokens;
+    }
+
+    private static ChatClientRequest pinnedRequest(String conversationId, String userText) {
+        UserMessage pinned = UserMessage.builder()
+                .text(userText)
+                .metadata(Map.of(CompactingChatMemoryAdvisor.PINNED_METADATA_KEY, true))
+                .build();
+        return ChatClientRequest.builder()
+                .prompt(new Prompt(pinned))
+                .context(Map.of(ChatMemory.CONVERSATION_ID, conversationId))
+                .build();
+    }
+
+    private static ChatClientRequest request(String conversationId, String userText) {
+        return ChatClientRequest.builder()
+                .prompt(new Prompt(userText))
+                .context(Map.of(ChatMemory.CONVERSATION_ID, conversationId))
+                .build();
+    }
+}
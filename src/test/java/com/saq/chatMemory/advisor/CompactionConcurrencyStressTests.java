@@ -0,0 +1,81 @@
+package com.saq.chatMemory.advisor;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Fires many simultaneous requests at a conversation sitting on the compaction threshold,
+ * against a summarizer slow enough that they all overlap.
+ */
+class CompactionConcurrencyStressTests {
+
+    private static final int THREADS = 32;
+    private static final int PRELOADED = 50;
+    private static final int MESSAGES_TO_COMPACT = 10;
+
+    @RepeatedTest(5)
+    void concurrentTriggersShareOneSummarizerCall() throws Exception {
+        ChatMemory chatMemory = MessageWindowChatMemory.builder().maxMessages(200).build();
+        for (int i = 0; i < PRELOADED; i++) {
+            chatMemory.add("shared", new UserMessage("earlier message " + i));
+        }
+        StubChatModel summaryModel = new StubChatModel("short summary", Duration.ofMillis(200));
+        StubCallAdvisorChain chain = new StubCallAdvisorChain(new StubChatModel("assistant reply"));
+        CompactingChatMemoryAdvisor advisor = CompactingChatMemoryAdvisor.builder(chatMemory, summaryModel)
+                .maxMessages(200)
+                .compactThreshold(PRELOADED)
+                .messagesToCompact(MESSAGES_TO_COMPACT)
+                .build();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int t = 0; t < THREADS; t++) {
+                String userText = "concurrent question " + t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return advisor.adviseCall(request(userText), chain);
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+
+        assertThat(summaryModel.getCalls()).isEqualTo(1);
+
+        List<Message> history = chatMemory.get("shared");
+        assertThat(history).hasSize(1 + (PRELOADED - MESSAGES_TO_COMPACT) + 2 * THREADS);
+        assertThat(history).filteredOn(SystemMessage.class::isInstance).hasSize(1);
+        for (int t = 0; t < THREADS; t++) {
+            String userText = "concurrent question " + t;
+            assertThat(history).extracting(Message::getText).contains(userText);
+        }
+        assertThat(advisor.getConversationStats("shared").messageCount()).isEqualTo(history.size());
+    }
+
+    private static ChatClientRequest request(String userText) {
+        return ChatClientRequest.builder()
+                .prompt(new Prompt(userText))
+                .context(Map.of(ChatMemory.CONVERSATION_ID, "shared"))
+                .build();
+    }
+}
@@ -0,0 +1,26 @@
+package com.saq.chatMemory.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtractiveSummarizerTests {
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Test
+    void sentenceLargerThanTheBudgetIsTruncatedRatherThanDropped() {
+        ExtractiveSummarizer summarizer = new ExtractiveSummarizer(20, tokenCountEstimator);
+        String sentence = "We agreed to move the billing service to PostgreSQL " + "and keep the old tables readable ".repeat(20);
+        assertThat(tokenCountEstimator.estimate(sentence)).isGreaterThan(20);
+
+        String summary = summarizer.summarize(List.of("User: " + sentence), null);
+
+        assertThat(summary).startsWith("User: We agreed to move the billing service").endsWith("…");
+        assertThat(tokenCountEstimator.estimate(summary)).isLessThanOrEqualTo(20);
+    }
+}
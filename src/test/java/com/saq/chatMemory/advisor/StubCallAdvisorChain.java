@@ -0,0 +1,39 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.model.ChatModel;
+
+import java.util.List;
+
+/**
+ * Terminal {@link CallAdvisorChain} that sends the advised prompt straight to a {@link ChatModel}.
+ */
+public class StubCallAdvisorChain implements CallAdvisorChain {
+
+    private final ChatModel chatModel;
+
+    public StubCallAdvisorChain(ChatModel chatModel) {
+        this.chatModel = chatModel;
+    }
+
+    @Override
+    public ChatClientResponse nextCall(ChatClientRequest request) {
+        return ChatClientResponse.builder()
+                .chatResponse(chatModel.call(request.prompt()))
+                .context(request.context())
+                .build();
+    }
+
+    @Override
+    public List<CallAdvisor> getCallAdvisors() {
+        return List.of();
+    }
+
+    @Override
+    public CallAdvisorChain copy(CallAdvisor after) {
+        return this;
+    }
+}
@@ -0,0 +1,84 @@
+package com.saq.chatMemory.advisor;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deterministic {@link ChatModel} for tests: always answers with the same text, optionally
+ * after a fixed delay or once a gate is opened, and counts how often it was called and how many
+ * calls were in flight at once.
+ */
+public class StubChatModel implements ChatModel {
+
+    private final String reply;
+    private final Duration latency;
+    private final CountDownLatch gate;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile Prompt lastPrompt;
+
+    public StubChatModel(String reply) {
+        this(reply, Duration.ZERO);
+    }
+
+    public StubChatModel(String reply, Duration latency) {
+        this(reply, latency, null);
+    }
+
+    /**
+     * Every call blocks until {@code gate} is opened, or until its thread is interrupted.
+     */
+    public StubChatModel(String reply, CountDownLatch gate) {
+        this(reply, Duration.ZERO, gate);
+    }
+
+    private StubChatModel(String reply, Duration latency, CountDownLatch gate) {
+        this.reply = reply;
+        this.latency = latency;
+        this.gate = gate;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        calls.incrementAndGet();
+        lastPrompt = prompt;
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            if (gate != null) {
+                gate.await();
+            } else if (!latency.isZero()) {
+                Thread.sleep(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(reply))));
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public Prompt getLastPrompt() {
+        return lastPrompt;
+    }
+}
@@ -0,0 +1,89 @@
+package com.saq.chatMemory.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.saq.chatMemory.advisor.CompactingChatMemoryAdvisor;
+import com.saq.chatMemory.advisor.StubCallAdvisorChain;
+import com.saq.chatMemory.advisor.StubChatModel;
+import com.saq.chatMemory.memory.CompactableMessageWindowChatMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot path of {@link CompactingChatMemoryAdvisor#adviseCall}: memory reads and writes, token
+ * accounting and periodic compaction, against a stub chain and summarizer that answer instantly.
+ *
+ * <p>The conversation starts one message below the compaction threshold, so the measured steady
+ * state alternates between plain turns and turns that compact {@code messagesToCompactPercent}
+ * of the history. Run with the {@code benchmark} profile; {@code -prof gc} reports allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CompactingChatMemoryAdvisorBenchmark {
+
+    private static final String CONVERSATION_ID = "benchmark";
+
+    @Param({"20", "100", "500"})
+    public int historyLength;
+
+    @Param({"20", "200"})
+    public int wordsPerMessage;
+
+    @Param({"10", "50"})
+    public int messagesToCompactPercent;
+
+    private CompactingChatMemoryAdvisor advisor;
+    private StubCallAdvisorChain chain;
+    private String messageBody;
+    private long turn;
+
+    @Setup
+    public void setUp() {
+        // Logback defaults to DEBUG without a config file, and the advisor logs every step at debug
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        messageBody = " lorem ipsum".repeat(wordsPerMessage);
+        ChatMemory chatMemory = CompactableMessageWindowChatMemory.builder()
+                .maxMessages(historyLength + 10)
+                .build();
+        for (int i = 0; i < historyLength - 1; i++) {
+            chatMemory.add(CONVERSATION_ID, i % 2 == 0 ?
+                    new UserMessage("seed " + i + messageBody) : new AssistantMessage("seed " + i + messageBody));
+        }
+
+        StubChatModel chatModel = new StubChatModel("reply" + messageBody);
+        chain = new StubCallAdvisorChain(chatModel);
+        advisor = CompactingChatMemoryAdvisor.builder(chatMemory, new StubChatModel("summary" + messageBody))
+                .maxMessages(historyLength + 10)
+                .compactThreshold(historyLength)
+                .messagesToCompact(Math.max(2, historyLength * messagesToCompactPercent / 100))
+                .meterRegistry(new SimpleMeterRegistry())
+                .build();
+    }
+
+    @Benchmark
+    public ChatClientResponse adviseCall() {
+        // Every turn brings new text, as in a real conversation, so the token cache sees one miss per message
+        ChatClientRequest request = ChatClientRequest.builder()
+                .prompt(new Prompt("turn " + turn++ + messageBody))
+                .context(Map.of(ChatMemory.CONVERSATION_ID, CONVERSATION_ID))
+                .build();
+        return advisor.adviseCall(request, chain);
+    }
+
+    @TearDown
+    public void tearDown() {
+        advisor.close();
+    }
+}
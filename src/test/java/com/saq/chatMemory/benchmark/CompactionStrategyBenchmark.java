@@ -0,0 +1,89 @@
+package com.saq.chatMemory.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.saq.chatMemory.advisor.CompactingChatMemoryAdvisor;
+import com.saq.chatMemory.advisor.StubChatModel;
+import com.saq.chatMemory.memory.CompactableMessageWindowChatMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compactions per second with the LLM and the extractive strategy, compacting the same range.
+ *
+ * <p>The LLM path runs against a stub summarizer, so {@code summarizerLatencyMillis} stands in for
+ * the model's response time: at 0 it measures the advisor's own overhead around the call, above 0
+ * it shows what a real summarizer costs. The extractive strategy ignores it. Each invocation
+ * refills the conversation and compacts half of it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class CompactionStrategyBenchmark {
+
+    private static final String CONVERSATION_ID = "benchmark";
+    private static final String[] SENTENCES = {
+            "We agreed to move the billing service to PostgreSQL before the next release.",
+            "Can you check whether the invoice exporter still depends on the legacy schema?",
+            "The nightly job failed twice this week because of a timeout in the payment gateway.",
+            "Let's keep the retry limit at three and alert the on-call engineer after that.",
+            "I pushed a draft of the migration plan to the shared folder.",
+    };
+
+    @Param({"LLM", "EXTRACTIVE"})
+    public CompactingChatMemoryAdvisor.CompactionStrategy strategy;
+
+    @Param({"0", "500"})
+    public int summarizerLatencyMillis;
+
+    @Param({"20", "100"})
+    public int historyLength;
+
+    private ChatMemory chatMemory;
+    private CompactingChatMemoryAdvisor advisor;
+
+    @Setup
+    public void setUp() {
+        // Logback defaults to DEBUG without a config file, and the advisor logs every step at debug
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        chatMemory = CompactableMessageWindowChatMemory.builder()
+                .maxMessages(historyLength + 10)
+                .build();
+        StubChatModel summarizer = new StubChatModel("summary of the conversation",
+                Duration.ofMillis(summarizerLatencyMillis));
+        advisor = CompactingChatMemoryAdvisor.builder(chatMemory, summarizer)
+                .maxMessages(historyLength + 10)
+                .compactThreshold(historyLength)
+                .messagesToCompact(historyLength / 2)
+                .compactionStrategy(strategy)
+                .meterRegistry(new SimpleMeterRegistry())
+                .build();
+    }
+
+    @Setup(org.openjdk.jmh.annotations.Level.Invocation)
+    public void fillHistory() {
+        chatMemory.clear(CONVERSATION_ID);
+        for (int i = 0; i < historyLength; i++) {
+            String text = SENTENCES[i % SENTENCES.length] + " " + SENTENCES[(i + 2) % SENTENCES.length] + " Item " + i + ".";
+            chatMemory.add(CONVERSATION_ID, i % 2 == 0 ? new UserMessage(text) : new AssistantMessage(text));
+        }
+    }
+
+    @Benchmark
+    public String compact() {
+        return advisor.compact(CONVERSATION_ID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        advisor.close();
+    }
+}
@@ -0,0 +1,100 @@
+package com.saq.chatMemory.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.saq.chatMemory.memory.MessageCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of persisting a conversation history with {@link MessageCodec} versus Jackson JSON.
+ * Spring AI messages can't be deserialized by Jackson directly, so the JSON side writes the same
+ * role, text and metadata through a plain record, which is what a JSON-backed store would do.
+ * The encoded sizes are printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MessageCodecBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int historySize;
+
+    private List<Message> history;
+    private ObjectMapper objectMapper;
+    private ByteBuffer encoded;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 50; w++) {
+                text.append("message").append(i).append("word").append(w).append(' ');
+            }
+            Map<String, Object> metadata = Map.of("turn", i, "source", "web");
+            history.add(switch (i % 3) {
+                case 0 -> SystemMessage.builder().text(text.toString()).metadata(metadata).build();
+                case 1 -> UserMessage.builder().text(text.toString()).metadata(metadata).build();
+                default -> AssistantMessage.builder().content(text.toString()).properties(metadata).build();
+            });
+        }
+        objectMapper = new ObjectMapper();
+        encoded = MessageCodec.encodeHistory(history);
+        json = objectMapper.writeValueAsBytes(toRecords(history));
+        System.out.printf("%n%d messages: codec %d bytes, json %d bytes%n", historySize, encoded.remaining(), json.length);
+    }
+
+    @Benchmark
+    public ByteBuffer codecEncode() {
+        return MessageCodec.encodeHistory(history);
+    }
+
+    @Benchmark
+    public List<Message> codecDecode() {
+        return MessageCodec.decodeHistory(encoded.duplicate());
+    }
+
+    @Benchmark
+    public byte[] jacksonEncode() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(toRecords(history));
+    }
+
+    @Benchmark
+    public List<Message> jacksonDecode() throws Exception {
+        List<MessageRecord> records = objectMapper.readValue(json, new TypeReference<>() {
+        });
+        List<Message> messages = new ArrayList<>(records.size());
+        for (MessageRecord record : records) {
+            messages.add(switch (record.role()) {
+                case SYSTEM -> SystemMessage.builder().text(record.text()).metadata(record.metadata()).build();
+                case USER -> UserMessage.builder().text(record.text()).metadata(record.metadata()).build();
+                default -> AssistantMessage.builder().content(record.text()).properties(record.metadata()).build();
+            });
+        }
+        return messages;
+    }
+
+    private static List<MessageRecord> toRecords(List<Message> messages) {
+        List<MessageRecord> records = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            records.add(new MessageRecord(message.getMessageType(), message.getText(), message.getMetadata()));
+        }
+        return records;
+    }
+
+    public record MessageRecord(MessageType role, String text, Map<String, Object> metadata) {
+    }
+}
@@ -0,0 +1,64 @@
+package com.saq.chatMemory.benchmark;
+
+import com.saq.chatMemory.advisor.CachingTokenCountEstimator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of counting the tokens of a conversation history, with and without
+ * the per-message cache. Each invocation is one request inspecting the full history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TokenCountEstimatorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int historySize;
+
+    @Param({"50", "500"})
+    public int wordsPerMessage;
+
+    private List<String> history;
+    private TokenCountEstimator uncached;
+    private TokenCountEstimator cached;
+
+    @Setup
+    public void setUp() {
+        history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < wordsPerMessage; w++) {
+                text.append("message").append(i).append("word").append(w).append(' ');
+            }
+            history.add(text.toString());
+        }
+        uncached = new JTokkitTokenCountEstimator();
+        cached = new CachingTokenCountEstimator(new JTokkitTokenCountEstimator());
+        // Earlier requests have already seen every message in the history
+        history.forEach(cached::estimate);
+    }
+
+    @Benchmark
+    public int uncached() {
+        int total = 0;
+        for (String text : history) {
+            total += uncached.estimate(text);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int cached() {
+        int total = 0;
+        for (String text : history) {
+            total += cached.estimate(text);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,54 @@
+package com.saq.chatMemory.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class CompactableMessageWindowChatMemoryTests {
+
+    private final CompactableMessageWindowChatMemory chatMemory = CompactableMessageWindowChatMemory.builder()
+            .maxMessages(5)
+            .build();
+
+    @Test
+    void replacePrefixSwapsOldestMessagesForSummary() {
+        for (int i = 0; i < 4; i++) {
+            chatMemory.add("conv", new UserMessage("question " + i));
+            chatMemory.add("conv", new AssistantMessage("answer " + i));
+        }
+        assertThat(chatMemory.get("conv")).hasSize(5);
+
+        chatMemory.replacePrefix("conv", 3, new SystemMessage("summary"));
+
+        assertThat(chatMemory.get("conv")).extracting(Message::getText)
+                .containsExactly("summary", "question 3", "answer 3");
+    }
+
+    @Test
+    void windowKeepsSystemMessagesWhenEvicting() {
+        chatMemory.add("conv", new SystemMessage("summary"));
+        for (int i = 0; i < 6; i++) {
+            chatMemory.add("conv", new UserMessage("question " + i));
+        }
+
+        List<Message> messages = chatMemory.get("conv");
+        assertThat(messages).hasSize(5);
+        assertThat(messages.get(0)).isInstanceOf(SystemMessage.class);
+        assertThat(messages).extracting(Message::getText).endsWith("question 5");
+    }
+
+    @Test
+    void replacePrefixRejectsPrefixLongerThanConversation() {
+        chatMemory.add("conv", new UserMessage("only message"));
+
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> chatMemory.replacePrefix("conv", 2, new SystemMessage("summary")));
+    }
+}
@@ -0,0 +1,112 @@
+package com.saq.chatMemory.memory;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many writers appending to and compacting a handful of shared conversations at once. Every
+ * append must survive, and each writer's messages must stay in the order it added them.
+ */
+class ConcurrentChatMemoryStressTests {
+
+    private static final int THREADS = 16;
+    private static final int CONVERSATIONS = 4;
+    private static final int APPENDS_PER_THREAD = 200;
+
+    @RepeatedTest(5)
+    void concurrentAppendsAreNeitherLostNorReordered() throws Exception {
+        CompactableMessageWindowChatMemory chatMemory = CompactableMessageWindowChatMemory.builder()
+                .maxMessages(Integer.MAX_VALUE)
+                .lockStripes(2)
+                .build();
+
+        runConcurrently(thread -> {
+            String conversationId = "conv-" + (thread % CONVERSATIONS);
+            for (int i = 0; i < APPENDS_PER_THREAD; i++) {
+                chatMemory.add(conversationId, new UserMessage(thread + ":" + i));
+            }
+        });
+
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            List<Message> messages = chatMemory.get("conv-" + c);
+            assertThat(messages).hasSize(THREADS / CONVERSATIONS * APPENDS_PER_THREAD);
+            assertWritersInOrder(messages);
+        }
+    }
+
+    @RepeatedTest(5)
+    void prefixReplacementsInterleaveSafelyWithAppends() throws Exception {
+        CompactableMessageWindowChatMemory chatMemory = CompactableMessageWindowChatMemory.builder()
+                .maxMessages(Integer.MAX_VALUE)
+                .build();
+        chatMemory.add("shared", new UserMessage("seed"));
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < APPENDS_PER_THREAD; i++) {
+                if (thread == 0) {
+                    // Collapse everything before the last message, as a compaction would
+                    int size = chatMemory.get("shared").size();
+                    chatMemory.replacePrefix("shared", size - 1, new SystemMessage("summary"));
+                } else {
+                    chatMemory.add("shared", new UserMessage(thread + ":" + i));
+                }
+            }
+        });
+
+        List<Message> messages = chatMemory.get("shared");
+        // Whatever a replacement dropped, appends that came after it are all still present and ordered
+        assertThat(messages.get(0)).isInstanceOf(SystemMessage.class);
+        assertWritersInOrder(messages.subList(1, messages.size()));
+    }
+
+    private static void assertWritersInOrder(List<Message> messages) {
+        int[] lastSeen = new int[THREADS];
+        Arrays.fill(lastSeen, -1);
+        for (Message message : messages) {
+            String[] parts = message.getText().split(":");
+            if (parts.length != 2) {
+                continue;
+            }
+            int thread = Integer.parseInt(parts[0]);
+            int index = Integer.parseInt(parts[1]);
+            assertThat(index).as("writer %d order", thread).isGreaterThan(lastSeen[thread]);
+            lastSeen[thread] = index;
+        }
+    }
+
+    private static void runConcurrently(ThreadBody body) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    body.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadBody {
+        void run(int thread);
+    }
+}
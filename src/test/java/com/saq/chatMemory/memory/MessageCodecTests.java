@@ -0,0 +1,88 @@
+package com.saq.chatMemory.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MessageCodecTests {
+
+    private static List<Message> history() {
+        return List.of(
+                SystemMessage.builder().text("summary").metadata(Map.of("compacted", true)).build(),
+                UserMessage.builder().text("héllo ✓ " + "x".repeat(100))
+                        .metadata(Map.of("turn", 3, "sentAt", 1_700_000_000_000L, "score", 0.5, "source", "web")).build(),
+                AssistantMessage.builder().content("calling a tool")
+                        .toolCalls(List.of(new AssistantMessage.ToolCall("call-1", "function", "weather", "{\"city\":\"Oslo\"}")))
+                        .build(),
+                ToolResponseMessage.builder()
+                        .responses(List.of(new ToolResponseMessage.ToolResponse("call-1", "weather", "{\"temp\":4}")))
+                        .build());
+    }
+
+    @Test
+    void roundTripsEveryMessageType() {
+        List<Message> decoded = MessageCodec.decodeHistory(MessageCodec.encodeHistory(history()));
+
+        assertRoundTripped(decoded);
+        assertThat(MessageCodec.decode(ByteBuffer.wrap(MessageCodec.encode(history().get(1)))).getMetadata())
+                .containsAllEntriesOf(history().get(1).getMetadata());
+    }
+
+    @Test
+    void streamsThroughBuffersSmallerThanTheMessages() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageEncoder encoder = new MessageEncoder(Channels.newChannel(out), ByteBuffer.allocate(16));
+        encoder.writeHeader(history().size()).write(history()).flush();
+
+        MessageDecoder decoder = new MessageDecoder(
+                Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), ByteBuffer.allocateDirect(16));
+
+        assertRoundTripped(decoder.readHistory());
+    }
+
+    @Test
+    void rejectsMessagesWithoutAKnownVersion() {
+        byte[] text = "old reply".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer unversioned = ByteBuffer.allocate(1 + text.length).put((byte) 2).put(text).flip();
+
+        assertThatThrownBy(() -> MessageCodec.decode(unversioned))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unsupported message encoding version 0");
+    }
+
+    @Test
+    void rejectsUnknownVersions() {
+        ByteBuffer encoded = MessageCodec.encodeHistory(history());
+        encoded.put(0, (byte) 7);
+
+        assertThatThrownBy(() -> MessageCodec.decodeHistory(encoded)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static void assertRoundTripped(List<Message> decoded) {
+        List<Message> original = history();
+        assertThat(decoded).hasSize(original.size());
+        for (int i = 0; i < original.size(); i++) {
+            assertThat(decoded.get(i).getClass()).isEqualTo(original.get(i).getClass());
+            assertThat(decoded.get(i).getText()).isEqualTo(original.get(i).getText());
+            assertThat(decoded.get(i).getMetadata()).isEqualTo(original.get(i).getMetadata());
+        }
+        assertThat(((AssistantMessage) decoded.get(2)).getToolCalls())
+                .isEqualTo(((AssistantMessage) original.get(2)).getToolCalls());
+        assertThat(((ToolResponseMessage) decoded.get(3)).getResponses())
+                .isEqualTo(((ToolResponseMessage) original.get(3)).getResponses());
+    }
+}
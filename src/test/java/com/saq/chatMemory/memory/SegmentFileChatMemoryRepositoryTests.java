@@ -0,0 +1,124 @@
+package com.saq.chatMemory.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentFileChatMemoryRepositoryTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void historySurvivesReopen() {
+        try (SegmentFileChatMemoryRepository repository = new SegmentFileChatMemoryRepository(directory, 4096)) {
+            CompactableMessageWindowChatMemory chatMemory = CompactableMessageWindowChatMemory.builder()
+                    .chatMemoryRepository(repository)
+                    .maxMessages(10)
+                    .build();
+            for (int i = 0; i < 3; i++) {
+                chatMemory.add("conv-a", new UserMessage("question " + i));
+                chatMemory.add("conv-a", new AssistantMessage("answer " + i));
+            }
+            chatMemory.replacePrefix("conv-a", 4, new SystemMessage("summary"));
+            chatMemory.add("conv-b", new UserMessage("héllo ✓"));
+            chatMemory.add("conv-c", new UserMessage("to be deleted"));
+            chatMemory.clear("conv-c");
+        }
+
+        try (SegmentFileChatMemoryRepository reopened = new SegmentFileChatMemoryRepository(directory, 4096)) {
+            assertThat(reopened.findConversationIds()).containsExactlyInAnyOrder("conv-a", "conv-b");
+            assertThat(reopened.findByConversationId("conv-a")).extracting(Message::getText)
+                    .containsExactly("summary", "question 2", "answer 2");
+            assertThat(reopened.findByConversationId("conv-a").get(0)).isInstanceOf(SystemMessage.class);
+            assertThat(reopened.findByConversationId("conv-b")).extracting(Message::getText)
+                    .containsExactly("héllo ✓");
+        }
+    }
+
+    @Test
+    void rollsOverToNewSegmentsAndRecoversAcrossThem() throws IOException {
+        List<Message> expected = new ArrayList<>();
+        try (SegmentFileChatMemoryRepository repository = new SegmentFileChatMemoryRepository(directory, 1024)) {
+            for (int i = 0; i < 50; i++) {
+                expected.add(new UserMessage("message number " + i + " with some padding text"));
+                repository.saveAll("conv", expected);
+            }
+            // A message larger than a segment gets a segment of its own
+            expected.add(new AssistantMessage("x".repeat(3000)));
+            repository.saveAll("conv", expected);
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count()).isGreaterThan(2);
+        }
+        try (SegmentFileChatMemoryRepository reopened = new SegmentFileChatMemoryRepository(directory, 1024)) {
+            assertThat(reopened.findByConversationId("conv")).extracting(Message::getText)
+                    .containsExactlyElementsOf(expected.stream().map(Message::getText).toList());
+        }
+    }
+
+    @Test
+    void changedMessagesAreRewrittenEvenWhenTheirTextHashesCollide() {
+        try (SegmentFileChatMemoryRepository repository = new SegmentFileChatMemoryRepository(directory, 4096)) {
+            // "Aa" and "BB" have the same String.hashCode()
+            repository.saveAll("conv", List.of(new UserMessage("question"), new UserMessage("Aa")));
+            repository.saveAll("conv", List.of(new UserMessage("question"), new UserMessage("BB")));
+            // Only the metadata changes
+            repository.saveAll("conv", List.of(
+                    UserMessage.builder().text("question").metadata(Map.of("pinned", true)).build(),
+                    new UserMessage("BB")));
+        }
+
+        try (SegmentFileChatMemoryRepository reopened = new SegmentFileChatMemoryRepository(directory, 4096)) {
+            List<Message> conversation = reopened.findByConversationId("conv");
+            assertThat(conversation).extracting(Message::getText).containsExactly("question", "BB");
+            assertThat(conversation.get(0).getMetadata()).containsEntry("pinned", true);
+        }
+    }
+
+    @Test
+    void supersededRecordsAreReclaimed() throws IOException {
+        List<Message> window = new ArrayList<>();
+        try (SegmentFileChatMemoryRepository repository = new SegmentFileChatMemoryRepository(directory, 1024)) {
+            for (int i = 0; i < 2000; i++) {
+                window.add(new UserMessage("message number " + i + " with some padding text"));
+                if (window.size() > 5) {
+                    window.remove(0);
+                }
+                repository.saveAll("conv", window);
+                if (i % 100 == 0) {
+                    repository.saveAll("conv-" + i, List.of(new UserMessage("to be deleted")));
+                    repository.deleteByConversationId("conv-" + i);
+                }
+            }
+        }
+
+        // Several hundred kilobytes were written, but only the live window is kept
+        assertThat(directorySize()).isLessThan(8 * 1024);
+        try (SegmentFileChatMemoryRepository reopened = new SegmentFileChatMemoryRepository(directory, 1024)) {
+            assertThat(reopened.findConversationIds()).containsExactly("conv");
+            assertThat(reopened.findByConversationId("conv")).extracting(Message::getText)
+                    .containsExactlyElementsOf(window.stream().map(Message::getText).toList());
+        }
+    }
+
+    private long directorySize() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
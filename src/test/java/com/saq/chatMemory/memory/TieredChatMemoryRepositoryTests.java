@@ -0,0 +1,183 @@
+package com.saq.chatMemory.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TieredChatMemoryRepositoryTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void spillsLeastRecentlyUsedConversationsAndReloadsThemOnRead() throws IOException {
+        TieredChatMemoryRepository repository = new TieredChatMemoryRepository(directory, 2, Long.MAX_VALUE);
+        repository.saveAll("conv-a", List.of(new SystemMessage("summary"), new UserMessage("héllo ✓")));
+        repository.saveAll("conv-b", List.of(new UserMessage("b")));
+        repository.findByConversationId("conv-a");
+        repository.saveAll("conv-c", List.of(new UserMessage("c")));
+
+        // conv-b was the least recently used
+        assertThat(repository.hotConversations()).isEqualTo(2);
+        assertThat(repository.coldConversations()).isEqualTo(1);
+        assertThat(spillFiles()).hasSize(1);
+        assertThat(repository.findConversationIds()).containsExactlyInAnyOrder("conv-a", "conv-b", "conv-c");
+
+        assertThat(repository.findByConversationId("conv-b")).extracting(Message::getText).containsExactly("b");
+        // Reloading conv-b pushed out conv-a, and the reloaded spill file is gone
+        assertThat(repository.coldConversations()).isEqualTo(1);
+        assertThat(spillFiles()).hasSize(1);
+
+        List<Message> reloaded = repository.findByConversationId("conv-a");
+        assertThat(reloaded).extracting(Message::getText).containsExactly("summary", "héllo ✓");
+        assertThat(reloaded.get(0)).isInstanceOf(SystemMessage.class);
+    }
+
+    @Test
+    void hotTierStaysWithinByteBudget() throws IOException {
+        long budget = 4 * MessageSizes.estimateBytes(new UserMessage("x".repeat(1000)));
+        TieredChatMemoryRepository repository = new TieredChatMemoryRepository(directory, 1000, budget);
+        for (int i = 0; i < 20; i++) {
+            repository.saveAll("conv-" + i, List.of(
+                    new UserMessage("x".repeat(1000)), new AssistantMessage("y".repeat(1000))));
+            assertThat(repository.hotBytes()).isLessThanOrEqualTo(budget);
+        }
+        assertThat(repository.hotConversations()).isEqualTo(2);
+        assertThat(repository.coldConversations()).isEqualTo(18);
+        // Repetitive text compresses well below its raw size
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.mapToLong(this::size).sum()).isLessThan(18 * 2000L);
+        }
+
+        repository.deleteByConversationId("conv-0");
+        repository.deleteByConversationId("conv-19");
+        assertThat(repository.findConversationIds()).hasSize(18).doesNotContain("conv-0", "conv-19");
+        assertThat(spillFiles()).hasSize(17);
+        assertThat(repository.findByConversationId("conv-0")).isEmpty();
+    }
+
+    @Test
+    void staleSpillFilesAreDiscardedOnStartup() throws IOException {
+        TieredChatMemoryRepository repository = new TieredChatMemoryRepository(directory, 1, Long.MAX_VALUE);
+        repository.saveAll("conv-a", List.of(new UserMessage("a")));
+        repository.saveAll("conv-b", List.of(new UserMessage("b")));
+        assertThat(spillFiles()).hasSize(1);
+
+        TieredChatMemoryRepository restarted = new TieredChatMemoryRepository(directory, 1, Long.MAX_VALUE);
+        assertThat(spillFiles()).isEmpty();
+        assertThat(restarted.findConversationIds()).isEmpty();
+    }
+
+    @Test
+    void failedReloadKeepsTheConversationInTheColdTier() throws IOException {
+        TieredChatMemoryRepository repository = new TieredChatMemoryRepository(directory, 1, Long.MAX_VALUE);
+        repository.saveAll("conv-a", List.of(new UserMessage("a")));
+        repository.saveAll("conv-b", List.of(new UserMessage("b")));
+        Path spillFile = spillFiles().get(0);
+        byte[] spilled = Files.readAllBytes(spillFile);
+        Files.write(spillFile, new byte[] {1, 2, 3, 4});
+
+        assertThatThrownBy(() -> repository.findByConversationId("conv-a")).isInstanceOf(IllegalStateException.class);
+        assertThat(repository.coldConversations()).isEqualTo(1);
+        assertThat(repository.findConversationIds()).contains("conv-a");
+        assertThat(spillFiles()).containsExactly(spillFile);
+
+        // Once the file is readable again the same read succeeds
+        Files.write(spillFile, spilled);
+        assertThat(repository.findByConversationId("conv-a")).extracting(Message::getText).containsExactly("a");
+        assertThat(spillFiles()).doesNotContain(spillFile);
+    }
+
+    @Test
+    void failedSpillKeepsTheVictimOnTheHeap() throws IOException {
+        Path spillDirectory = directory.resolve("spill");
+        TieredChatMemoryRepository repository = new TieredChatMemoryRepository(spillDirectory, 1, Long.MAX_VALUE);
+        repository.saveAll("conv-a", List.of(new UserMessage("a")));
+        long bytesOfA = repository.hotBytes();
+        // A regular file in place of the spill directory makes every spill fail
+        Files.delete(spillDirectory);
+        Files.createFile(spillDirectory);
+
+        repository.saveAll("conv-b", List.of(new UserMessage("b")));
+
+        assertThat(repository.hotConversations()).isEqualTo(2);
+        assertThat(repository.hotBytes()).isEqualTo(bytesOfA + MessageSizes.estimateBytes(List.of(new UserMessage("b"))));
+        assertThat(repository.coldConversations()).isZero();
+        assertThat(repository.findByConversationId("conv-a")).extracting(Message::getText).containsExactly("a");
+
+        // Once spilling works again the hot tier is brought back within its limit
+        Files.delete(spillDirectory);
+        Files.createDirectory(spillDirectory);
+        repository.saveAll("conv-c", List.of(new UserMessage("c")));
+        assertThat(repository.hotConversations()).isEqualTo(1);
+        assertThat(repository.coldConversations()).isEqualTo(2);
+        assertThat(repository.findByConversationId("conv-b")).extracting(Message::getText).containsExactly("b");
+    }
+
+    @Test
+    void concurrentWritersAndReadersNeverLoseSpilledConversations() throws Exception {
+        TieredChatMemoryRepository repository = new TieredChatMemoryRepository(directory, 4, Long.MAX_VALUE);
+        int threads = 8;
+        int rounds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String conversationId = "conv-" + t;
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < rounds; i++) {
+                        repository.saveAll(conversationId, List.of(new UserMessage(conversationId + "/" + i)));
+                        // Other threads keep spilling this conversation; every read must see the last write
+                        assertThat(repository.findByConversationId(conversationId))
+                                .extracting(Message::getText).containsExactly(conversationId + "/" + i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(repository.findConversationIds()).hasSize(threads);
+        assertThat(repository.hotConversations()).isLessThanOrEqualTo(4);
+        assertThat(spillFiles()).hasSize(repository.coldConversations());
+        for (int t = 0; t < threads; t++) {
+            assertThat(repository.findByConversationId("conv-" + t))
+                    .extracting(Message::getText).containsExactly("conv-" + t + "/" + (rounds - 1));
+        }
+    }
+
+    private List<Path> spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+
+    private long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.saq.chatMemory.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteAheadLogChatMemoryRepositoryTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void compactionIsLoggedAsOneSmallRecordAndSurvivesRestart() throws IOException {
+        try (WriteAheadLogChatMemoryRepository repository = new WriteAheadLogChatMemoryRepository(directory)) {
+            CompactableMessageWindowChatMemory chatMemory = memory(repository);
+            for (int i = 0; i < 6; i++) {
+                chatMemory.add("conv-a", new UserMessage("question " + i + " " + "x".repeat(200)));
+                chatMemory.add("conv-a", new AssistantMessage("answer " + i));
+            }
+            chatMemory.add("conv-b", new UserMessage("héllo ✓"));
+            chatMemory.add("conv-c", new UserMessage("to be deleted"));
+            chatMemory.clear("conv-c");
+
+            long before = logSize();
+            chatMemory.replacePrefix("conv-a", 6, new SystemMessage("summary"));
+            // Summary plus truncation point, not a rewrite of the remaining history
+            assertThat(logSize() - before).isLessThan(64);
+        }
+
+        try (WriteAheadLogChatMemoryRepository reopened = new WriteAheadLogChatMemoryRepository(directory)) {
+            assertThat(reopened.findConversationIds()).containsExactlyInAnyOrder("conv-a", "conv-b");
+            List<Message> conversation = reopened.findByConversationId("conv-a");
+            // Window of 10 evicted the first question/answer pair before the compaction dropped 6 more
+            assertThat(conversation).hasSize(5);
+            assertThat(conversation.get(0)).isInstanceOf(SystemMessage.class);
+            assertThat(conversation).extracting(Message::getText).last().isEqualTo("answer 5");
+            assertThat(reopened.findByConversationId("conv-b")).extracting(Message::getText).containsExactly("héllo ✓");
+        }
+    }
+
+    @Test
+    void compactionKeepingPinnedMessagesSurvivesRestart() throws IOException {
+        try (WriteAheadLogChatMemoryRepository repository = new WriteAheadLogChatMemoryRepository(directory)) {
+            CompactableMessageWindowChatMemory chatMemory = memory(repository);
+            chatMemory.add("conv-a", List.of(new SystemMessage("system prompt"), new UserMessage("question"),
+                    new AssistantMessage("answer"), new UserMessage("spec"), new AssistantMessage("ok")));
+            chatMemory.replacePrefix("conv-a", 4, List.of(new SystemMessage("system prompt"),
+                    new SystemMessage("summary"), new UserMessage("spec")));
+        }
+
+        try (WriteAheadLogChatMemoryRepository reopened = new WriteAheadLogChatMemoryRepository(directory)) {
+            assertThat(reopened.findByConversationId("conv-a")).extracting(Message::getText)
+                    .containsExactly("system prompt", "summary", "spec", "ok");
+        }
+    }
+
+    @Test
+    void snapshotsReplaceOlderLogsAndRecoverTheSameState() throws IOException {
+        try (WriteAheadLogChatMemoryRepository repository = new WriteAheadLogChatMemoryRepository(directory, 25, true)) {
+            CompactableMessageWindowChatMemory chatMemory = memory(repository);
+            for (int i = 0; i < 200; i++) {
+                chatMemory.add("conv-" + (i % 7), new UserMessage("message " + i));
+                if (i % 30 == 29) {
+                    chatMemory.replacePrefix("conv-" + (i % 7), 2, new SystemMessage("summary " + i));
+                }
+            }
+        }
+        assertThat(files()).hasSize(2).anyMatch(name -> name.startsWith("snapshot-")).anyMatch(name -> name.startsWith("wal-"));
+
+        WriteAheadLogChatMemoryRepository expected = new WriteAheadLogChatMemoryRepository(directory);
+        for (int c = 0; c < 7; c++) {
+            List<Message> conversation = expected.findByConversationId("conv-" + c);
+            assertThat(conversation).isNotEmpty();
+            assertThat(conversation).extracting(Message::getText).last()
+                    .isEqualTo("message " + (196 + c - (c >= 4 ? 7 : 0)));
+        }
+        expected.close();
+    }
+
+    @Test
+    void logsAreKeptWhenTheProcessStopsBeforeTheSnapshotIsWritten() throws IOException {
+        try (WriteAheadLogChatMemoryRepository repository = new WriteAheadLogChatMemoryRepository(directory)) {
+            repository.saveAll("conv-a", List.of(new UserMessage("a")));
+        }
+        // The log was switched, but the snapshot of the switch never landed
+        Files.createFile(directory.resolve("wal-0000000001.log"));
+
+        try (WriteAheadLogChatMemoryRepository reopened = new WriteAheadLogChatMemoryRepository(directory)) {
+            reopened.saveAll("conv-b", List.of(new UserMessage("b")));
+        }
+        try (WriteAheadLogChatMemoryRepository reopened = new WriteAheadLogChatMemoryRepository(directory)) {
+            assertThat(reopened.findByConversationId("conv-a")).extracting(Message::getText).containsExactly("a");
+            assertThat(reopened.findByConversationId("conv-b")).extracting(Message::getText).containsExactly("b");
+
+            reopened.snapshot();
+            assertThat(files()).containsExactlyInAnyOrder("snapshot-0000000002.bin", "wal-0000000002.log");
+        }
+    }
+
+    @Test
+    void tornTailIsDiscardedAndLoggingResumes() throws IOException {
+        try (WriteAheadLogChatMemoryRepository repository = new WriteAheadLogChatMemoryRepository(directory)) {
+            repository.saveAll("conv", List.of(new UserMessage("one")));
+            repository.saveAll("conv", List.of(new UserMessage("one"), new AssistantMessage("two")));
+        }
+        // A crash part-way through the next record
+        Files.write(log(), new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (WriteAheadLogChatMemoryRepository reopened = new WriteAheadLogChatMemoryRepository(directory)) {
+            assertThat(reopened.findByConversationId("conv")).extracting(Message::getText).containsExactly("one", "two");
+            reopened.saveAll("conv", List.of(new AssistantMessage("two"), new UserMessage("three")));
+        }
+        try (WriteAheadLogChatMemoryRepository reopened = new WriteAheadLogChatMemoryRepository(directory)) {
+            assertThat(reopened.findByConversationId("conv")).extracting(Message::getText).containsExactly("two", "three");
+        }
+    }
+
+    private static CompactableMessageWindowChatMemory memory(WriteAheadLogChatMemoryRepository repository) {
+        return CompactableMessageWindowChatMemory.builder()
+                .chatMemoryRepository(repository)
+                .maxMessages(10)
+                .build();
+    }
+
+    private Path log() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("wal-")).findFirst().orElseThrow();
+        }
+    }
+
+    private long logSize() throws IOException {
+        return Files.size(log());
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).toList();
+        }
+    }
+}